@@ -0,0 +1,93 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Serialised annotations of single files of submissions that reached a final status, keyed by the {@link SubmissionVersion} they were read at.
+ * A resubmission changes the version, so entries of previous versions are never read again and simply age out, on every replica, without invalidation.
+ * The in-process tier is bounded by the total size of the cached JSON; when an {@link AnnotationsSharedCache} is available it is used as second tier.
+ */
+@Component
+public class AnnotationsCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(AnnotationsCache.class);
+
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	private final Cache<String, byte[]> cache;
+
+	private final AnnotationsSharedCache sharedCache;
+
+	public AnnotationsCache(@Value("${annotations.cache.enable}") boolean enabled,
+			@Value("${annotations.cache.maxWeightBytes}") long maxWeightBytes,
+			@Value("${annotations.cache.ttlSeconds}") long ttlSeconds,
+			ObjectProvider<AnnotationsSharedCache> sharedCache, MeterRegistry meterRegistry) {
+		if (enabled) {
+			this.cache = Caffeine.newBuilder()
+					.maximumWeight(maxWeightBytes)
+					.weigher((String key, byte[] value) -> value.length)
+					.expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+					.recordStats()
+					.build();
+			CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "annotations");
+			this.sharedCache = sharedCache.getIfAvailable();
+		} else {
+			this.cache = null;
+			this.sharedCache = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return cache != null;
+	}
+
+	private static String key(String user, String ftId, long version, String filename) {
+		return user + KEY_SEPARATOR + ftId + KEY_SEPARATOR + Long.toHexString(version) + KEY_SEPARATOR + filename;
+	}
+
+	public byte[] get(String user, String ftId, long version, String filename) {
+		if (cache == null) {
+			return null;
+		}
+		String key = key(user, ftId, version, filename);
+		byte[] ret = cache.getIfPresent(key);
+		if (ret == null && sharedCache != null) {
+			try {
+				ret = sharedCache.get(key);
+			} catch (Exception e) {
+				logger.error("Problems in reading shared annotations cache for ftId {} and user {}", ftId, user, e);
+			}
+			if (ret != null) {
+				cache.put(key, ret);
+			}
+		}
+		return ret;
+	}
+
+	public void put(String user, String ftId, long version, String filename, byte[] annotations) {
+		if (cache == null) {
+			return;
+		}
+		String key = key(user, ftId, version, filename);
+		cache.put(key, annotations);
+		if (sharedCache != null) {
+			try {
+				sharedCache.put(key, annotations);
+			} catch (Exception e) {
+				logger.error("Problems in writing shared annotations cache for ftId {} and user {}", ftId, user, e);
+			}
+		}
+	}
+}
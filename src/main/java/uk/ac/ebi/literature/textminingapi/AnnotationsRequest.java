@@ -0,0 +1,35 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.List;
+
+/**
+ * Entry of a multi-get of annotations: all the files of the submission, or only the given ones.
+ */
+public class AnnotationsRequest {
+
+	private String ftId;
+	private List<String> filenames;
+
+	public AnnotationsRequest() {
+	}
+
+	public AnnotationsRequest(String ftId) {
+		this.ftId = ftId;
+	}
+
+	public String getFtId() {
+		return ftId;
+	}
+
+	public void setFtId(String ftId) {
+		this.ftId = ftId;
+	}
+
+	public List<String> getFilenames() {
+		return filenames;
+	}
+
+	public void setFilenames(List<String> filenames) {
+		this.filenames = filenames;
+	}
+}
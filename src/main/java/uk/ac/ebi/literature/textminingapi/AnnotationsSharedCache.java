@@ -0,0 +1,13 @@
+package uk.ac.ebi.literature.textminingapi;
+
+/**
+ * Optional cache shared between the API replicas, consulted by {@link AnnotationsCache} after its in-process tier.
+ * Declaring a bean implementing this interface (i.e. backed by Redis or Memcached) is enough to enable it.
+ * Keys include the version of the submission, so entries never need to be invalidated and should just expire.
+ */
+public interface AnnotationsSharedCache {
+
+	byte[] get(String key);
+
+	void put(String key, byte[] value);
+}
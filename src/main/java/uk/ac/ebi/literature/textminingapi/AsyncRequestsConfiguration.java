@@ -0,0 +1,41 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs the streamed responses ({@link org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody}) on a dedicated pool
+ * instead of the shared application task executor, whose queue is unbounded: at most poolSize responses are written at the same time,
+ * queueCapacity more wait, and further ones are refused with 503 by the controller.
+ * The time a streamed response can take is set by spring.mvc.async.request-timeout.
+ */
+@Configuration
+public class AsyncRequestsConfiguration implements WebMvcConfigurer {
+
+	private final ThreadPoolTaskExecutor executor;
+
+	public AsyncRequestsConfiguration(@Value("${async.request.poolSize}") int poolSize, @Value("${async.request.queueCapacity}") int queueCapacity) {
+		this.executor = new ThreadPoolTaskExecutor();
+		this.executor.setCorePoolSize(poolSize);
+		this.executor.setMaxPoolSize(poolSize);
+		this.executor.setQueueCapacity(queueCapacity);
+		this.executor.setThreadNamePrefix("async-request-");
+		this.executor.setWaitForTasksToCompleteOnShutdown(true);
+		this.executor.initialize();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.setTaskExecutor(executor);
+	}
+}
@@ -0,0 +1,53 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchSubmissionResult {
+
+	private String ftId;
+	private boolean success;
+	private List<String> errors = new ArrayList<>();
+
+	public BatchSubmissionResult() {
+	}
+
+	public BatchSubmissionResult(String ftId) {
+		this.ftId = ftId;
+		this.success = true;
+	}
+
+	public String getFtId() {
+		return ftId;
+	}
+
+	public void setFtId(String ftId) {
+		this.ftId = ftId;
+	}
+
+	public boolean isSuccess() {
+		return success;
+	}
+
+	public void setSuccess(boolean success) {
+		this.success = success;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	public void setErrors(List<String> errors) {
+		this.errors = errors;
+	}
+
+	public void fail(List<String> errorMessages) {
+		this.success = false;
+		this.errors.addAll(errorMessages);
+	}
+
+	public void fail(String errorMessage) {
+		this.success = false;
+		this.errors.add(errorMessage);
+	}
+}
@@ -0,0 +1,64 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Lets clients ask for CBOR or Smile instead of JSON through the Accept header, with the same Jackson settings as JSON.
+ * JSON stays the default when the Accept header does not prefer one of them.
+ */
+@Configuration
+public class BinaryFormatsConfiguration {
+
+	public static final String SMILE_VALUE = "application/x-jackson-smile";
+
+	public static final MediaType SMILE = MediaType.parseMediaType(SMILE_VALUE);
+
+	/**
+	 * @return CBOR or Smile when the Accept header prefers one of them to JSON, null otherwise
+	 */
+	public static MediaType getPreferredBinaryFormat(String accept) {
+		if (accept == null) {
+			return null;
+		}
+		List<MediaType> mediaTypes;
+		try {
+			mediaTypes = MediaType.parseMediaTypes(accept);
+		} catch (InvalidMediaTypeException e) {
+			return null;
+		}
+		MediaType.sortBySpecificityAndQuality(mediaTypes);
+		for (MediaType mediaType : mediaTypes) {
+			if (mediaType.isCompatibleWith(MediaType.APPLICATION_JSON)) {
+				return null;
+			}
+			if (mediaType.isCompatibleWith(MediaType.APPLICATION_CBOR)) {
+				return MediaType.APPLICATION_CBOR;
+			}
+			if (mediaType.isCompatibleWith(SMILE)) {
+				return SMILE;
+			}
+		}
+		return null;
+	}
+
+	@Bean
+	public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2CborHttpMessageConverter(builder.createXmlMapper(false).factory(new CBORFactory()).build());
+	}
+
+	@Bean
+	public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		return new MappingJackson2SmileHttpMessageConverter(builder.createXmlMapper(false).factory(new SmileFactory()).build());
+	}
+}
@@ -0,0 +1,172 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AccountStatusUserDetailsChecker;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsChecker;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Keeps the outcome of successful HTTP Basic authentications so that clients repeating the same
+ * credentials skip both the users collection lookup and the BCrypt comparison.
+ * Entries are keyed on a SHA-256 digest of username and password, so no clear text password is retained,
+ * and they expire after a fixed time or as soon as {@link UsersChangeListener} sees the corresponding {@link Users} document change.
+ * The account status of a cached user is checked again on every hit.
+ * An authentication that was running while its user was invalidated is not cached, so that it can not outlive the change.
+ */
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+	private static final Logger logger = LoggerFactory.getLogger(CachingAuthenticationProvider.class);
+
+	private final AuthenticationProvider delegate;
+
+	private final Cache<String, Authentication> cache;
+
+	// cache keys of each user, so that the entries of a user are dropped without scanning the cache
+	private final ConcurrentHashMap<String, Set<String>> keysByUsername = new ConcurrentHashMap<>();
+
+	// invalidations of each user, and of all of them, changed together with keysByUsername for the user:
+	// one kept for each user invalidated, bounded by the users collection
+	private final ConcurrentHashMap<String, Long> generationByUsername = new ConcurrentHashMap<>();
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private final UserDetailsChecker accountStatusChecker = new AccountStatusUserDetailsChecker();
+
+	public CachingAuthenticationProvider(AuthenticationProvider delegate, boolean enabled, long maxSize, long ttlSeconds, MeterRegistry meterRegistry) {
+		this.delegate = delegate;
+		if (enabled) {
+			this.cache = Caffeine.newBuilder()
+					.maximumSize(maxSize)
+					.expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+					.removalListener(this::onRemoval)
+					.recordStats()
+					.build();
+			CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "authentication");
+		} else {
+			this.cache = null;
+		}
+	}
+
+	private void onRemoval(String key, Authentication value, RemovalCause cause) {
+		// a replaced entry is still cached under the same key; the listener runs asynchronously,
+		// and the key is kept when it has been cached again in the meantime
+		if (value != null && cause != RemovalCause.REPLACED) {
+			keysByUsername.computeIfPresent(value.getName(), (username, keys) -> {
+				Authentication current = cache.asMap().get(key);
+				if (current == null || current == value) {
+					keys.remove(key);
+				}
+				return keys.isEmpty() ? null : keys;
+			});
+		}
+	}
+
+	@Override
+	public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+		if (cache == null || authentication.getCredentials() == null) {
+			return delegate.authenticate(authentication);
+		}
+
+		String key = digest(authentication.getName(), authentication.getCredentials().toString());
+		Authentication cached = cache.getIfPresent(key);
+		if (cached != null) {
+			if (cached.getPrincipal() instanceof UserDetails) {
+				try {
+					accountStatusChecker.check((UserDetails) cached.getPrincipal());
+				} catch (AuthenticationException e) {
+					cache.invalidate(key);
+					throw e;
+				}
+			}
+			// a fresh token per request so that request details are never shared between requests
+			UsernamePasswordAuthenticationToken ret = new UsernamePasswordAuthenticationToken(cached.getPrincipal(), null, cached.getAuthorities());
+			ret.setDetails(authentication.getDetails());
+			return ret;
+		}
+
+		long generationBefore = this.generationOf(authentication.getName());
+		Authentication ret = delegate.authenticate(authentication);
+		if (ret != null && ret.isAuthenticated()) {
+			keysByUsername.compute(ret.getName(), (username, keys) -> {
+				if (this.generationOf(username) != generationBefore) {
+					// invalidated while the users collection was read, the outcome may be stale
+					return keys;
+				}
+				Set<String> cachedKeys = keys != null ? keys : ConcurrentHashMap.newKeySet();
+				cachedKeys.add(key);
+				cache.put(key, ret);
+				return cachedKeys;
+			});
+			if (this.generationOf(ret.getName()) != generationBefore) {
+				// invalidated while caching, by invalidateAll which does not go through keysByUsername
+				cache.invalidate(key);
+			}
+		}
+		return ret;
+	}
+
+	private long generationOf(String username) {
+		return generation.get() + generationByUsername.getOrDefault(username, 0L);
+	}
+
+	@Override
+	public boolean supports(Class<?> authentication) {
+		return delegate.supports(authentication);
+	}
+
+	public void invalidate(String username) {
+		if (cache != null && username != null) {
+			Set<String> keys = ConcurrentHashMap.newKeySet();
+			keysByUsername.compute(username, (name, current) -> {
+				generationByUsername.merge(username, 1L, Long::sum);
+				if (current != null) {
+					keys.addAll(current);
+				}
+				return null;
+			});
+			cache.invalidateAll(keys);
+			logger.info("Authentication cache invalidated for user {}", username);
+		}
+	}
+
+	public void invalidateAll() {
+		if (cache != null) {
+			generation.incrementAndGet();
+			cache.invalidateAll();
+			logger.info("Authentication cache invalidated for all users");
+		}
+	}
+
+	private static String digest(String username, String password) {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			messageDigest.update(username.getBytes(StandardCharsets.UTF_8));
+			messageDigest.update((byte) ':');
+			messageDigest.update(password.getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(messageDigest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decides whether the API may send requests to a callback URL, so that submissions cannot make it reach internal services.
+ * The host is resolved and refused if any of its addresses is loopback, link-local, site-local, unique-local, shared (100.64.0.0/10),
+ * multicast or unspecified, unless private addresses are allowed for local installations.
+ * When a list of allowed hosts is configured, only those hosts and their subdomains are accepted as well.
+ * The check runs before each delivery, and when a submission is received only if callback.checkOnSubmit is set,
+ * since resolving the host blocks the request and local installations may use internal callback hosts.
+ */
+@Component
+public class CallbackAddressGuard {
+
+	private final boolean allowPrivateAddresses;
+
+	private final List<String> allowedHosts;
+
+	public CallbackAddressGuard(@Value("${callback.allowPrivateAddresses}") boolean allowPrivateAddresses,
+			@Value("${callback.allowedHosts}") String allowedHosts) {
+		this.allowPrivateAddresses = allowPrivateAddresses;
+		this.allowedHosts = allowedHosts == null || allowedHosts.isBlank() ? Collections.emptyList()
+				: Arrays.stream(allowedHosts.split(",")).map(String::trim).filter(host -> !host.isEmpty())
+						.map(host -> host.toLowerCase(Locale.ROOT)).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return false if the URL has no host, its host is not allowed or does not resolve, or it resolves to a private address
+	 */
+	public boolean isAllowed(String url) {
+		String host = hostOf(url);
+		if (host == null || !this.isAllowedHost(host)) {
+			return false;
+		}
+		if (allowPrivateAddresses) {
+			return true;
+		}
+		try {
+			for (InetAddress address : InetAddress.getAllByName(host)) {
+				if (isPrivate(address)) {
+					return false;
+				}
+			}
+			return true;
+		} catch (UnknownHostException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return false if the URL has no host or its host is not in the allowed hosts, without resolving it
+	 */
+	public boolean isAllowedHostOf(String url) {
+		String host = hostOf(url);
+		return host != null && this.isAllowedHost(host);
+	}
+
+	private static String hostOf(String url) {
+		try {
+			String host = URI.create(url).getHost();
+			return host == null ? null : host.toLowerCase(Locale.ROOT);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private boolean isAllowedHost(String host) {
+		if (allowedHosts.isEmpty()) {
+			return true;
+		}
+		for (String allowedHost : allowedHosts) {
+			if (host.equals(allowedHost) || host.endsWith("." + allowedHost)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static boolean isPrivate(InetAddress address) {
+		if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress()
+				|| address.isMulticastAddress()) {
+			return true;
+		}
+		byte[] bytes = address.getAddress();
+		if (address instanceof Inet6Address) {
+			// unique local fc00::/7, and IPv4 mapped addresses are checked as IPv4
+			if ((bytes[0] & 0xfe) == 0xfc) {
+				return true;
+			}
+			if (isIpv4Mapped(bytes)) {
+				try {
+					return isPrivate(InetAddress.getByAddress(Arrays.copyOfRange(bytes, 12, 16)));
+				} catch (UnknownHostException e) {
+					return true;
+				}
+			}
+			return false;
+		}
+		// shared address space 100.64.0.0/10 and "this network" 0.0.0.0/8
+		return ((bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64) || bytes[0] == 0;
+	}
+
+	private static boolean isIpv4Mapped(byte[] bytes) {
+		for (int i = 0; i < 10; i++) {
+			if (bytes[i] != 0) {
+				return false;
+			}
+		}
+		return (bytes[10] & 0xff) == 0xff && (bytes[11] & 0xff) == 0xff;
+	}
+}
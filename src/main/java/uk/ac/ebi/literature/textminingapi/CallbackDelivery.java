@@ -0,0 +1,137 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Pending delivery of a completed submission to its callback URL, retried until it succeeds or runs out of attempts.
+ * The id identifies the completion, so the same completion observed more than once is delivered only once:
+ * delivered documents are kept, without payload, until expireAt.
+ */
+@Document(collection = "#{@environment.getProperty('mongoDb.callbackDeliveriesCollection')}")
+public class CallbackDelivery {
+
+	@Id
+	private String _id;
+	private String user;
+	private String ftId;
+	private String callback;
+	private String payload;
+	private int attempts;
+	private Date nextAttempt;
+	private Date lockedUntil;
+	private String claim;
+	private boolean failed;
+	private String lastError;
+	private Date deliveredAt;
+	private Date expireAt;
+
+	public CallbackDelivery() {
+	}
+
+	public String get_id() {
+		return _id;
+	}
+
+	public void set_id(String _id) {
+		this._id = _id;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public String getFtId() {
+		return ftId;
+	}
+
+	public void setFtId(String ftId) {
+		this.ftId = ftId;
+	}
+
+	public String getCallback() {
+		return callback;
+	}
+
+	public void setCallback(String callback) {
+		this.callback = callback;
+	}
+
+	public String getPayload() {
+		return payload;
+	}
+
+	public void setPayload(String payload) {
+		this.payload = payload;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public Date getNextAttempt() {
+		return nextAttempt;
+	}
+
+	public void setNextAttempt(Date nextAttempt) {
+		this.nextAttempt = nextAttempt;
+	}
+
+	public Date getLockedUntil() {
+		return lockedUntil;
+	}
+
+	public void setLockedUntil(Date lockedUntil) {
+		this.lockedUntil = lockedUntil;
+	}
+
+	public String getClaim() {
+		return claim;
+	}
+
+	public void setClaim(String claim) {
+		this.claim = claim;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public void setFailed(boolean failed) {
+		this.failed = failed;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
+	public Date getDeliveredAt() {
+		return deliveredAt;
+	}
+
+	public void setDeliveredAt(Date deliveredAt) {
+		this.deliveredAt = deliveredAt;
+	}
+
+	public Date getExpireAt() {
+		return expireAt;
+	}
+
+	public void setExpireAt(Date expireAt) {
+		this.expireAt = expireAt;
+	}
+}
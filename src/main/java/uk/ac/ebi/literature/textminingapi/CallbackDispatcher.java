@@ -0,0 +1,404 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+import uk.ac.ebi.literature.textminingapi.utility.Utility;
+
+/**
+ * Delivers completed submissions to their callback URL.
+ * Completions are first stored as {@link CallbackDelivery} documents, which act as a durable retry queue shared by all the replicas:
+ * each replica claims a batch of due deliveries with a lease in a single update, POSTs them with a non-blocking HTTP client while limiting the requests in flight for each host,
+ * marks the delivered ones, kept for a retention time so that the same completion is not delivered twice, and reschedules the others
+ * with an exponential backoff.
+ * Completions are observed through {@link SubmissionCompletedEvent}s and, since the change stream can miss some while down,
+ * by a periodic sweep of the completed submissions following a checkpoint shared by the replicas.
+ * Callbacks whose host is refused by the {@link CallbackAddressGuard} are not sent.
+ * Optionally deliveries to the same callback URL are sent together as a JSON array, also when only one of them is due,
+ * so that the body of a callback always has the same shape: they are grouped by URL rather than by host, since a POST has a single target
+ * and callbacks on the same host may be different endpoints, while the limit on the requests in flight applies to the host.
+ */
+@Component
+@ConditionalOnProperty(name = "callback.enable", havingValue = "true")
+public class CallbackDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(CallbackDispatcher.class);
+
+	private static final String SWEEP_LOCK_NAME = "callback-sweep";
+
+	private static final String SWEEP_CHECKPOINT_ID = "callback-sweep";
+
+	private final MongoTemplate mongoTemplate;
+
+	private final ObjectMapper objectMapper;
+
+	private final MeterRegistry meterRegistry;
+
+	private final HttpClient httpClient;
+
+	private final CallbackAddressGuard callbackAddressGuard;
+
+	private final TextminingApiPublicMongoService publicMongoService;
+
+	private final MongoLeaseLock lock;
+
+	// requests in flight by callback host, the entry removed when none is left so that the hosts seen once are not kept
+	private final Map<String, Integer> hostsInFlight = new ConcurrentHashMap<>();
+
+	@Value("${callback.maxConcurrentPerHost}")
+	private int maxConcurrentPerHost;
+
+	@Value("${callback.batchSize}")
+	private int batchSize;
+
+	@Value("${callback.coalesce}")
+	private boolean coalesce;
+
+	@Value("${callback.maxAttempts}")
+	private int maxAttempts;
+
+	@Value("${callback.initialBackoffMs}")
+	private long initialBackoffMs;
+
+	@Value("${callback.maxBackoffMs}")
+	private long maxBackoffMs;
+
+	@Value("${callback.leaseMs}")
+	private long leaseMs;
+
+	@Value("${callback.requestTimeoutMs}")
+	private long requestTimeoutMs;
+
+	@Value("${callback.deliveredRetentionMs}")
+	private long deliveredRetentionMs;
+
+	@Value("${callback.sweep.enable}")
+	private boolean sweepEnabled;
+
+	@Value("${callback.sweep.delayMs}")
+	private long sweepDelayMs;
+
+	@Value("${callback.sweep.pageSize}")
+	private int sweepPageSize;
+
+	@Value("${callback.sweep.maxPages}")
+	private int sweepMaxPages;
+
+	@Value("${callback.sweep.lockMs}")
+	private long sweepLockMs;
+
+	@Value("${mongoDb.resumeTokensCollection}")
+	private String resumeTokensCollection;
+
+	public CallbackDispatcher(MongoTemplate mongoTemplate, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			CallbackAddressGuard callbackAddressGuard, TextminingApiPublicMongoService publicMongoService, MongoLeaseLock lock,
+			@Value("${callback.connectTimeoutMs}") long connectTimeoutMs) {
+		this.mongoTemplate = mongoTemplate;
+		this.objectMapper = objectMapper;
+		this.meterRegistry = meterRegistry;
+		this.callbackAddressGuard = callbackAddressGuard;
+		this.publicMongoService = publicMongoService;
+		this.lock = lock;
+		this.httpClient = HttpClient.newBuilder()
+				.connectTimeout(Duration.ofMillis(connectTimeoutMs))
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.build();
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		try {
+			mongoTemplate.indexOps(CallbackDelivery.class).ensureIndex(new Index().on("failed", Direction.ASC).on("nextAttempt", Direction.ASC));
+			mongoTemplate.indexOps(CallbackDelivery.class).ensureIndex(new Index().on("claim", Direction.ASC).sparse());
+			// delivered completions are dropped once their retention has passed
+			mongoTemplate.indexOps(CallbackDelivery.class).ensureIndex(new Index().on("expireAt", Direction.ASC).expire(0));
+		} catch (Exception e) {
+			logger.error("Problems in creating the index on the callback deliveries collection", e);
+		}
+	}
+
+	@EventListener
+	public void onSubmissionCompleted(SubmissionCompletedEvent event) {
+		this.enqueue(event);
+	}
+
+	/**
+	 * @return true if a delivery has been stored, false if the submission has no callback or its completion was already queued
+	 */
+	private boolean enqueue(SubmissionCompletedEvent event) {
+		String callback = event.getSubmission().getCallback();
+		if (Utility.isEmpty(callback)) {
+			return false;
+		}
+		Object dateModified = event.getDateModified();
+		CallbackDelivery delivery = new CallbackDelivery();
+		delivery.set_id(event.getUser() + '|' + event.getSubmission().getFtId() + '|'
+				+ (dateModified instanceof Date ? ((Date) dateModified).getTime() : String.valueOf(dateModified)));
+		delivery.setUser(event.getUser());
+		delivery.setFtId(event.getSubmission().getFtId());
+		delivery.setCallback(callback);
+		delivery.setNextAttempt(new Date());
+		delivery.setLockedUntil(new Date(0));
+		try {
+			delivery.setPayload(objectMapper.writeValueAsString(event.getSubmission()));
+			mongoTemplate.insert(delivery);
+			return true;
+		} catch (DuplicateKeyException e) {
+			// the same completion already observed here or by another replica
+			logger.debug("Callback delivery {} already queued", delivery.get_id());
+		} catch (JsonProcessingException e) {
+			logger.error("Problems in serialising callback payload for ftId {} and user {}", delivery.getFtId(), delivery.getUser(), e);
+		}
+		return false;
+	}
+
+	/**
+	 * Queues the completions modified since the last sweep and at least sweep.delayMs ago, so that those missed by the change stream are delivered too.
+	 * The first sweep only stores the checkpoint: completions from before the dispatcher was enabled are not delivered.
+	 */
+	@Scheduled(initialDelayString = "${callback.sweep.intervalMs}", fixedDelayString = "${callback.sweep.intervalMs}")
+	public void sweep() {
+		if (!sweepEnabled) {
+			return;
+		}
+		if (!lock.tryAcquire(SWEEP_LOCK_NAME, sweepLockMs)) {
+			logger.debug("Callback sweep run by another replica");
+			return;
+		}
+		try {
+			Date cutoff = new Date(System.currentTimeMillis() - sweepDelayMs);
+			Document checkpoint = mongoTemplate.findById(SWEEP_CHECKPOINT_ID, Document.class, resumeTokensCollection);
+			if (checkpoint == null) {
+				this.saveSweepCheckpoint(cutoff, null);
+				return;
+			}
+			Object afterDateModified = checkpoint.get("dateModified");
+			Object afterId = checkpoint.get("submissionId");
+			int queued = 0;
+			for (int i = 0; i < sweepMaxPages; i++) {
+				List<SubmissionMessage> page = publicMongoService.findCompletedSubmissionsWithCallback(cutoff, afterDateModified, afterId, sweepPageSize);
+				if (page.isEmpty()) {
+					break;
+				}
+				SubmissionMessage last = page.get(page.size() - 1);
+				afterDateModified = last.getDateModified();
+				afterId = last.get_id();
+				for (SubmissionMessage submission : page) {
+					if (this.enqueue(SubmissionCompletedEvent.of(this, submission))) {
+						queued++;
+					}
+				}
+				this.saveSweepCheckpoint(afterDateModified, afterId);
+				if (page.size() < sweepPageSize) {
+					break;
+				}
+			}
+			if (queued > 0) {
+				meterRegistry.counter("textmining.callback.swept").increment(queued);
+				logger.warn("Queued {} callback deliveries missed by the change stream", queued);
+			}
+		} catch (Exception e) {
+			logger.error("Problems in sweeping the completed submissions for callbacks", e);
+		} finally {
+			lock.release(SWEEP_LOCK_NAME);
+		}
+	}
+
+	private void saveSweepCheckpoint(Object dateModified, Object submissionId) {
+		mongoTemplate.upsert(Query.query(Criteria.where("_id").is(SWEEP_CHECKPOINT_ID)),
+				new Update().set("dateModified", dateModified).set("submissionId", submissionId), resumeTokensCollection);
+	}
+
+	@Scheduled(fixedDelayString = "${callback.pollDelayMs}")
+	public void dispatch() {
+		List<CallbackDelivery> claimed = this.claimDueDeliveries();
+		if (claimed.isEmpty()) {
+			return;
+		}
+
+		Map<String, List<CallbackDelivery>> groups;
+		if (coalesce) {
+			groups = claimed.stream().collect(Collectors.groupingBy(CallbackDelivery::getCallback, LinkedHashMap::new, Collectors.toList()));
+		} else {
+			groups = new LinkedHashMap<>();
+			for (CallbackDelivery delivery : claimed) {
+				groups.put(delivery.get_id(), Collections.singletonList(delivery));
+			}
+		}
+		groups.values().forEach(this::send);
+	}
+
+	/**
+	 * Claims up to batchSize due deliveries: their ids are read, then those still due are leased in one update tagged with a new claim,
+	 * so that a delivery claimed by another replica in between is not taken, and the claimed ones are read back by that claim.
+	 */
+	private List<CallbackDelivery> claimDueDeliveries() {
+		try {
+			Date now = new Date();
+			Criteria due = Criteria.where("failed").is(false).and("nextAttempt").lte(now).and("lockedUntil").lte(now);
+			Query query = Query.query(due).with(Sort.by(Direction.ASC, "nextAttempt")).limit(batchSize);
+			query.fields().include("_id");
+			List<String> ids = mongoTemplate.find(query, CallbackDelivery.class).stream().map(CallbackDelivery::get_id).collect(Collectors.toList());
+			if (ids.isEmpty()) {
+				return Collections.emptyList();
+			}
+			String claim = UUID.randomUUID().toString();
+			Update update = new Update().set("lockedUntil", new Date(now.getTime() + leaseMs)).set("claim", claim);
+			mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids).andOperator(due)), update, CallbackDelivery.class);
+			return mongoTemplate.find(Query.query(Criteria.where("claim").is(claim)).with(Sort.by(Direction.ASC, "nextAttempt")), CallbackDelivery.class);
+		} catch (Exception e) {
+			logger.error("Problems in claiming callback deliveries", e);
+			return Collections.emptyList();
+		}
+	}
+
+	private void send(List<CallbackDelivery> deliveries) {
+		String body = !coalesce ? deliveries.get(0).getPayload()
+				: deliveries.stream().map(CallbackDelivery::getPayload).collect(Collectors.joining(",", "[", "]"));
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(URI.create(deliveries.get(0).getCallback()))
+					.timeout(Duration.ofMillis(requestTimeoutMs))
+					.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+					.POST(HttpRequest.BodyPublishers.ofString(body))
+					.build();
+		} catch (IllegalArgumentException e) {
+			// only http and https callbacks can be delivered
+			this.giveUp(deliveries, "Invalid callback URL: " + e.getMessage());
+			return;
+		}
+		if (!callbackAddressGuard.isAllowed(deliveries.get(0).getCallback())) {
+			// the host may resolve differently than when the submission was accepted
+			this.giveUp(deliveries, "Callback host not allowed or resolving to a private address");
+			return;
+		}
+
+		String host = String.valueOf(request.uri().getHost());
+		if (!this.tryAcquireHost(host)) {
+			// too many requests in flight towards this host, leave them to a later poll
+			this.release(deliveries);
+			return;
+		}
+		long start = System.nanoTime();
+		httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+			this.releaseHost(host);
+			boolean delivered = error == null && response.statusCode() >= 200 && response.statusCode() < 300;
+			meterRegistry.timer("textmining.callback.delivery", "outcome", delivered ? "success" : "failure")
+					.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			if (delivered) {
+				this.markDelivered(deliveries);
+			} else {
+				this.reschedule(deliveries, error != null ? error.toString() : "HTTP status " + response.statusCode());
+			}
+		});
+	}
+
+	private boolean tryAcquireHost(String host) {
+		boolean[] acquired = new boolean[1];
+		hostsInFlight.compute(host, (key, inFlight) -> {
+			int current = inFlight == null ? 0 : inFlight;
+			if (current >= maxConcurrentPerHost) {
+				return inFlight;
+			}
+			acquired[0] = true;
+			return current + 1;
+		});
+		return acquired[0];
+	}
+
+	private void releaseHost(String host) {
+		hostsInFlight.computeIfPresent(host, (key, inFlight) -> inFlight > 1 ? inFlight - 1 : null);
+	}
+
+	private static Query byIds(List<CallbackDelivery> deliveries) {
+		return Query.query(Criteria.where("_id").in(deliveries.stream().map(CallbackDelivery::get_id).collect(Collectors.toList())));
+	}
+
+	private void markDelivered(List<CallbackDelivery> deliveries) {
+		Date now = new Date();
+		Update update = new Update().set("deliveredAt", now).set("expireAt", new Date(now.getTime() + deliveredRetentionMs))
+				.unset("nextAttempt").unset("payload");
+		try {
+			mongoTemplate.updateMulti(byIds(deliveries), update, CallbackDelivery.class);
+			logger.info("Delivered {} completions to callback {}", deliveries.size(), deliveries.get(0).getCallback());
+		} catch (Exception e) {
+			logger.error("Problems in marking callbacks as delivered", e);
+		}
+	}
+
+	private void release(List<CallbackDelivery> deliveries) {
+		try {
+			mongoTemplate.updateMulti(byIds(deliveries), new Update().set("lockedUntil", new Date(0)), CallbackDelivery.class);
+		} catch (Exception e) {
+			logger.error("Problems in releasing callback deliveries", e);
+		}
+	}
+
+	private void reschedule(List<CallbackDelivery> deliveries, String error) {
+		for (CallbackDelivery delivery : deliveries) {
+			int attempts = delivery.getAttempts() + 1;
+			if (attempts >= maxAttempts) {
+				this.giveUp(Collections.singletonList(delivery), error);
+				continue;
+			}
+			long backoff = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempts - 1, 30));
+			Update update = new Update().set("attempts", attempts).set("lastError", error)
+					.set("nextAttempt", new Date(System.currentTimeMillis() + backoff)).set("lockedUntil", new Date(0));
+			try {
+				mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(delivery.get_id())), update, CallbackDelivery.class);
+			} catch (Exception e) {
+				logger.error("Problems in rescheduling callback delivery {}", delivery.get_id(), e);
+			}
+		}
+		logger.warn("Delivery of {} completions to callback {} failed: {}", deliveries.size(), deliveries.get(0).getCallback(), error);
+	}
+
+	private void giveUp(List<CallbackDelivery> deliveries, String error) {
+		try {
+			mongoTemplate.updateMulti(byIds(deliveries), new Update().set("failed", true).set("lastError", error), CallbackDelivery.class);
+		} catch (Exception e) {
+			logger.error("Problems in marking callback deliveries as failed", e);
+		}
+		meterRegistry.counter("textmining.callback.abandoned").increment(deliveries.size());
+		logger.error("Gave up delivering {} completions to callback {}: {}", deliveries.size(), deliveries.get(0).getCallback(), error);
+	}
+}
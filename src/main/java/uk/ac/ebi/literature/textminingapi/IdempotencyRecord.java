@@ -0,0 +1,86 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Outcome of a submission sent with an Idempotency-Key header, replayed to the client when the same key is sent again.
+ * The id is made of user and key, records expire through a TTL index on the creation date.
+ */
+@Document(collection = "#{@environment.getProperty('mongoDb.idempotencyCollection')}")
+public class IdempotencyRecord {
+
+	public static final String IN_PROGRESS = "in_progress";
+	public static final String COMPLETED = "completed";
+
+	@Id
+	private String _id;
+	private String user;
+	private String ftId;
+	private String status;
+	private int httpStatus;
+	private List<String> errors;
+	private Date dateInserted;
+
+	public IdempotencyRecord() {
+	}
+
+	public String get_id() {
+		return _id;
+	}
+
+	public void set_id(String _id) {
+		this._id = _id;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public String getFtId() {
+		return ftId;
+	}
+
+	public void setFtId(String ftId) {
+		this.ftId = ftId;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public int getHttpStatus() {
+		return httpStatus;
+	}
+
+	public void setHttpStatus(int httpStatus) {
+		this.httpStatus = httpStatus;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	public void setErrors(List<String> errors) {
+		this.errors = errors;
+	}
+
+	public Date getDateInserted() {
+		return dateInserted;
+	}
+
+	public void setDateInserted(Date dateInserted) {
+		this.dateInserted = dateInserted;
+	}
+}
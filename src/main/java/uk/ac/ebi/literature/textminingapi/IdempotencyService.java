@@ -0,0 +1,211 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs a submission at most once for each Idempotency-Key of a user and replays its recorded response to the retries.
+ * Retries reaching the same replica while the first request is running wait for it and share its response;
+ * across replicas the key is claimed by inserting an {@link IdempotencyRecord}, and a retry finding it still in progress gets a conflict,
+ * unless the claim is older than the in-progress timeout, which means that the replica running it went away.
+ */
+@Component
+public class IdempotencyService {
+
+	private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	public static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+
+	protected static final String KEY_TOO_LONG_ERROR = "Idempotency-Key can be at most %d characters long";
+	protected static final String KEY_IN_PROGRESS_ERROR = "A submission with the same Idempotency-Key is still being processed";
+	protected static final String KEY_REUSED_ERROR = "Idempotency-Key already used for a submission with a different ft_id";
+
+	private static final int MAX_KEY_LENGTH = 255;
+
+	private final MongoTemplate mongoTemplate;
+
+	private final ConcurrentHashMap<String, InFlightSubmission> inFlight = new ConcurrentHashMap<>();
+
+	private static class InFlightSubmission {
+
+		private final String ftId;
+
+		private final CompletableFuture<ResponseEntity<List<String>>> response = new CompletableFuture<>();
+
+		InFlightSubmission(String ftId) {
+			this.ftId = ftId;
+		}
+	}
+
+	@Value("${idempotency.enable}")
+	private boolean enabled;
+
+	@Value("${idempotency.ttlSeconds}")
+	private long ttlSeconds;
+
+	@Value("${idempotency.inProgressTimeoutMs}")
+	private long inProgressTimeoutMs;
+
+	public IdempotencyService(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			mongoTemplate.indexOps(IdempotencyRecord.class).ensureIndex(new Index().on("dateInserted", Direction.ASC).expire(ttlSeconds));
+		} catch (Exception e) {
+			logger.error("Problems in creating the TTL index on the idempotency keys collection", e);
+		}
+	}
+
+	/**
+	 * Runs the submission unless the key has been used already, in which case the recorded response is returned.
+	 * Responses with status 429 are not recorded, as the submission was not attempted.
+	 */
+	public ResponseEntity<List<String>> execute(String user, String key, String ftId, Supplier<ResponseEntity<List<String>>> submission) {
+		if (!enabled || key == null) {
+			return submission.get();
+		}
+		if (key.length() > MAX_KEY_LENGTH) {
+			return new ResponseEntity<List<String>>(Collections.singletonList(String.format(KEY_TOO_LONG_ERROR, MAX_KEY_LENGTH)), HttpStatus.BAD_REQUEST);
+		}
+
+		String id = user + '\u0000' + key;
+		InFlightSubmission current = new InFlightSubmission(ftId);
+		InFlightSubmission running = inFlight.putIfAbsent(id, current);
+		if (running != null) {
+			// same key on this replica while the first request is running, collapse onto it
+			logger.info("Waiting for the in-flight submission with the same idempotency key for ftId {} and user {}", ftId, user);
+			ResponseEntity<List<String>> ret = running.response.join();
+			return this.replay(ret.getStatusCodeValue(), ret.getBody(), running.ftId, ftId);
+		}
+
+		try {
+			ResponseEntity<List<String>> ret = this.claimAndExecute(id, user, ftId, submission);
+			current.response.complete(ret);
+			return ret;
+		} catch (RuntimeException e) {
+			current.response.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(id, current);
+		}
+	}
+
+	private ResponseEntity<List<String>> claimAndExecute(String id, String user, String ftId, Supplier<ResponseEntity<List<String>>> submission) {
+		ResponseEntity<List<String>> claimResponse = this.claim(id, user, ftId);
+		if (claimResponse != null) {
+			return claimResponse;
+		}
+
+		ResponseEntity<List<String>> ret;
+		try {
+			ret = submission.get();
+		} catch (RuntimeException e) {
+			// nothing recorded, a retry with the same key runs the submission again
+			this.release(id);
+			throw e;
+		}
+		return this.record(id, user, ftId, ret);
+	}
+
+	/**
+	 * Claims the key for the submission.
+	 * @return null if the submission can run, otherwise the response to return instead
+	 */
+	private ResponseEntity<List<String>> claim(String id, String user, String ftId) {
+		IdempotencyRecord record = new IdempotencyRecord();
+		record.set_id(id);
+		record.setUser(user);
+		record.setFtId(ftId);
+		record.setStatus(IdempotencyRecord.IN_PROGRESS);
+		record.setDateInserted(new Date());
+		try {
+			mongoTemplate.insert(record);
+		} catch (DuplicateKeyException e) {
+			IdempotencyRecord existing = mongoTemplate.findById(id, IdempotencyRecord.class);
+			if (existing != null && IdempotencyRecord.COMPLETED.equals(existing.getStatus())) {
+				logger.info("Replaying recorded response of idempotent submission for ftId {} and user {}", existing.getFtId(), user);
+				return this.replay(existing.getHttpStatus(), existing.getErrors(), existing.getFtId(), ftId);
+			}
+			if (existing == null || !this.takeOver(existing, ftId)) {
+				return new ResponseEntity<List<String>>(Collections.singletonList(KEY_IN_PROGRESS_ERROR), HttpStatus.CONFLICT);
+			}
+			logger.warn("Taking over abandoned idempotent submission for ftId {} and user {}", existing.getFtId(), user);
+		}
+		return null;
+	}
+
+	/**
+	 * Records the response of the submission for the retries, or releases the key when the submission was not attempted.
+	 */
+	private ResponseEntity<List<String>> record(String id, String user, String ftId, ResponseEntity<List<String>> ret) {
+		if (ret.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+			this.release(id);
+			return ret;
+		}
+		try {
+			Update update = new Update().set("status", IdempotencyRecord.COMPLETED).set("httpStatus", ret.getStatusCodeValue())
+					.set("errors", ret.getBody() != null ? ret.getBody() : new ArrayList<String>());
+			mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)), update, IdempotencyRecord.class);
+		} catch (Exception e) {
+			logger.error("Problems in recording the response of idempotent submission for ftId {} and user {}", ftId, user, e);
+		}
+		return ret;
+	}
+
+	/**
+	 * Claims a key left in progress for longer than the timeout, only one of the replicas trying at the same time succeeds.
+	 */
+	private boolean takeOver(IdempotencyRecord existing, String ftId) {
+		if (existing.getDateInserted() == null || existing.getDateInserted().getTime() > System.currentTimeMillis() - inProgressTimeoutMs) {
+			return false;
+		}
+		Query query = Query.query(Criteria.where("_id").is(existing.get_id()).and("status").is(IdempotencyRecord.IN_PROGRESS)
+				.and("dateInserted").is(existing.getDateInserted()));
+		return mongoTemplate.findAndModify(query, new Update().set("dateInserted", new Date()).set("ftId", ftId), FindAndModifyOptions.options().returnNew(true), IdempotencyRecord.class) != null;
+	}
+
+	private void release(String id) {
+		try {
+			mongoTemplate.remove(Query.query(Criteria.where("_id").is(id).and("status").is(IdempotencyRecord.IN_PROGRESS)), IdempotencyRecord.class);
+		} catch (Exception e) {
+			logger.error("Problems in releasing idempotency key {}", id, e);
+		}
+	}
+
+	private ResponseEntity<List<String>> replay(int httpStatus, List<String> errors, String recordedFtId, String ftId) {
+		if (!Objects.equals(recordedFtId, ftId)) {
+			return new ResponseEntity<List<String>>(Collections.singletonList(KEY_REUSED_ERROR), HttpStatus.UNPROCESSABLE_ENTITY);
+		}
+		return ResponseEntity.status(httpStatus).header(IDEMPOTENT_REPLAYED_HEADER, "true").body(errors);
+	}
+}
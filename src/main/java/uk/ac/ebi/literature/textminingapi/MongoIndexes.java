@@ -0,0 +1,64 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.stereotype.Component;
+
+import uk.ac.ebi.literature.textminingapi.pojo.AnnotationsData;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Creates at startup the indexes behind the lookups of the API, all of them by user and ft_id, optionally with the filename,
+ * the listing of the submissions of a user, the lookup of the users by username and the background scans by status and modification date.
+ * The indexes of the collections owned by optional features are created by the features themselves,
+ * and the unique index of the submissions, which the conditional upserts rely on, by {@link TextminingApiPublicMongoService}.
+ * These indexes can be left to the database administrators with mongoDb.ensureIndexes, and one that can not be created is only logged.
+ */
+@Component
+public class MongoIndexes {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoIndexes.class);
+
+	private final MongoTemplate mongoTemplate;
+
+	@Value("${mongoDb.ensureIndexes}")
+	private boolean enabled;
+
+	public MongoIndexes(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		if (!enabled) {
+			logger.info("Creation of the mongoDb indexes disabled");
+			return;
+		}
+		// covers the version lookup used for conditional requests and cached annotations
+		this.ensureIndex(SubmissionMessage.class, new Index().on("ftId", Direction.ASC).on("user", Direction.ASC).on("dateModified", Direction.ASC).on("status", Direction.ASC));
+		// keyset paging of the stale pending submissions, and of the completed ones by the callback sweep
+		this.ensureIndex(SubmissionMessage.class, new Index().on("status", Direction.ASC).on("dateModified", Direction.ASC).on("_id", Direction.ASC));
+		// listing of the submissions of a user, optionally by status, in modification date order
+		this.ensureIndex(SubmissionMessage.class, new Index().on("user", Direction.ASC).on("dateModified", Direction.ASC).on("_id", Direction.ASC));
+		this.ensureIndex(SubmissionMessage.class, new Index().on("user", Direction.ASC).on("status", Direction.ASC).on("dateModified", Direction.ASC).on("_id", Direction.ASC));
+		// annotations of a submission, of one of its files, and of many submissions sorted by ft_id and filename
+		this.ensureIndex(AnnotationsData.class, new Index().on("ftId", Direction.ASC).on("user", Direction.ASC).on("filename", Direction.ASC));
+		// authentication
+		this.ensureIndex(Users.class, new Index().on("username", Direction.ASC));
+	}
+
+	private void ensureIndex(Class<?> entityClass, Index index) {
+		try {
+			String name = mongoTemplate.indexOps(entityClass).ensureIndex(index);
+			logger.debug("Ensured index {} on the {} collection", name, mongoTemplate.getCollectionName(entityClass));
+		} catch (Exception e) {
+			logger.error("Problems in creating the index {} on the collection of {}", index.getIndexKeys(), entityClass.getSimpleName(), e);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Named locks shared by all the replicas, held for a lease time so that a replica going away does not keep them.
+ * A lock is a document with the name as _id, taken by an upsert matching it only when the lease has expired or belongs to this replica:
+ * when another replica holds it the upsert collides on the _id.
+ */
+@Component
+public class MongoLeaseLock {
+
+	private static final Logger logger = LoggerFactory.getLogger(MongoLeaseLock.class);
+
+	private final MongoTemplate mongoTemplate;
+
+	private final String owner = UUID.randomUUID().toString();
+
+	@Value("${mongoDb.locksCollection}")
+	private String locksCollection;
+
+	public MongoLeaseLock(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	/**
+	 * @return true if the lock has been taken, or renewed, by this replica for the given time
+	 */
+	public boolean tryAcquire(String name, long leaseMs) {
+		Date now = new Date();
+		Query query = Query.query(Criteria.where("_id").is(name).orOperator(Criteria.where("lockedUntil").lte(now), Criteria.where("owner").is(owner)));
+		Update update = new Update().set("lockedUntil", new Date(now.getTime() + leaseMs)).set("owner", owner);
+		try {
+			mongoTemplate.upsert(query, update, locksCollection);
+			return true;
+		} catch (DuplicateKeyException e) {
+			return false;
+		} catch (Exception e) {
+			logger.error("Problems in acquiring lock {}", name, e);
+			return false;
+		}
+	}
+
+	public void release(String name) {
+		try {
+			mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(name).and("owner").is(owner)), new Update().set("lockedUntil", new Date()), locksCollection);
+		} catch (Exception e) {
+			// the lease expires anyway
+			logger.error("Problems in releasing lock {}", name, e);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.Date;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import uk.ac.ebi.literature.textminingapi.pojo.MLTextObject;
+
+/**
+ * Message of a file of a submission waiting to be published to the submissions queue,
+ * written in the same transaction as the submission and removed once the broker has confirmed it.
+ */
+@Document(collection = "#{@environment.getProperty('mongoDb.outboxCollection')}")
+public class OutboxMessage {
+
+	@Id
+	private String _id;
+	private MLTextObject message;
+	private int attempts;
+	private Date lockedUntil;
+	private String claim;
+	private Date dateInserted;
+
+	public OutboxMessage() {
+	}
+
+	public OutboxMessage(MLTextObject message) {
+		this.message = message;
+		this.lockedUntil = new Date(0);
+		this.dateInserted = new Date();
+	}
+
+	public String get_id() {
+		return _id;
+	}
+
+	public void set_id(String _id) {
+		this._id = _id;
+	}
+
+	public MLTextObject getMessage() {
+		return message;
+	}
+
+	public void setMessage(MLTextObject message) {
+		this.message = message;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public Date getLockedUntil() {
+		return lockedUntil;
+	}
+
+	public void setLockedUntil(Date lockedUntil) {
+		this.lockedUntil = lockedUntil;
+	}
+
+	public String getClaim() {
+		return claim;
+	}
+
+	public void setClaim(String claim) {
+		this.claim = claim;
+	}
+
+	public Date getDateInserted() {
+		return dateInserted;
+	}
+
+	public void setDateInserted(Date dateInserted) {
+		this.dateInserted = dateInserted;
+	}
+}
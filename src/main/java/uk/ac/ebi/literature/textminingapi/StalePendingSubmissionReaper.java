@@ -0,0 +1,204 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import uk.ac.ebi.literature.textminingapi.pojo.MLTextObject;
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+
+/**
+ * Re-drives the submissions left pending for longer than the maximum age, which could otherwise be neither resubmitted nor deleted:
+ * their pending files are published again, or in outbox mode handed to the outbox relay, and after the maximum number of re-drives
+ * the files and the submission are marked as failed. Submissions are read in bounded pages by keyset on dateModified and _id,
+ * and a single replica at a time runs the job, under a {@link MongoLeaseLock}.
+ * The maximum age grows with the depth of the submissions queue, by the time the pipeline takes to drain it, so that files still waiting
+ * in a backed up queue are not published twice; while the depth cannot be read nothing is re-driven.
+ */
+@Component
+@ConditionalOnProperty(name = "reaper.enable", havingValue = "true")
+public class StalePendingSubmissionReaper {
+
+	private static final Logger logger = LoggerFactory.getLogger(StalePendingSubmissionReaper.class);
+
+	private static final String LOCK_NAME = "stale-pending-submission-reaper";
+
+	protected static final String REDRIVEN = "redriven";
+	protected static final String FAILED = "failed";
+	protected static final String SKIPPED = "skipped";
+	protected static final String ERROR = "error";
+
+	private final TextminingApiPublicMongoService publicMongoService;
+
+	private final SubmissionQueuePublisher submissionQueuePublisher;
+
+	private final MongoLeaseLock lock;
+
+	private final MeterRegistry meterRegistry;
+
+	private final AmqpAdmin amqpAdmin;
+
+	@Value("${reaper.maxAgeMs}")
+	private long maxAgeMs;
+
+	@Value("${reaper.queue.drainPerMinute}")
+	private long drainPerMinute;
+
+	@Value("${rabbitmq.submissionsQueue}")
+	private String SUBMISSIONS_QUEUE;
+
+	@Value("${reaper.pageSize}")
+	private int pageSize;
+
+	@Value("${reaper.maxPages}")
+	private int maxPages;
+
+	@Value("${reaper.maxRedrives}")
+	private int maxRedrives;
+
+	@Value("${reaper.lockMs}")
+	private long lockMs;
+
+	@Value("${outbox.enable}")
+	private boolean outboxEnabled;
+
+	public StalePendingSubmissionReaper(TextminingApiPublicMongoService publicMongoService, SubmissionQueuePublisher submissionQueuePublisher,
+			MongoLeaseLock lock, MeterRegistry meterRegistry, AmqpAdmin amqpAdmin) {
+		this.publicMongoService = publicMongoService;
+		this.submissionQueuePublisher = submissionQueuePublisher;
+		this.lock = lock;
+		this.meterRegistry = meterRegistry;
+		this.amqpAdmin = amqpAdmin;
+	}
+
+	/**
+	 * @return the maximum age plus the time needed to drain the submissions queue, -1 if its depth cannot be read
+	 */
+	private long getEffectiveMaxAgeMs() {
+		try {
+			QueueInformation info = amqpAdmin.getQueueInfo(SUBMISSIONS_QUEUE);
+			if (info == null) {
+				logger.error("Queue {} not found, stale pending submissions not re-driven", SUBMISSIONS_QUEUE);
+				return -1;
+			}
+			return maxAgeMs + TimeUnit.MINUTES.toMillis(info.getMessageCount()) / Math.max(1, drainPerMinute);
+		} catch (Exception e) {
+			logger.error("Problems in reading the depth of queue {}, stale pending submissions not re-driven", SUBMISSIONS_QUEUE, e);
+			return -1;
+		}
+	}
+
+	@Scheduled(initialDelayString = "${reaper.intervalMs}", fixedDelayString = "${reaper.intervalMs}")
+	public void reap() {
+		if (!lock.tryAcquire(LOCK_NAME, lockMs)) {
+			logger.debug("Stale pending submissions handled by another replica");
+			return;
+		}
+		try {
+			long effectiveMaxAgeMs = this.getEffectiveMaxAgeMs();
+			if (effectiveMaxAgeMs < 0) {
+				return;
+			}
+			Date cutoff = new Date(System.currentTimeMillis() - effectiveMaxAgeMs);
+			Object afterDateModified = null;
+			Object afterId = null;
+			int touched = 0;
+			for (int i = 0; i < maxPages; i++) {
+				List<Document> page = publicMongoService.findStalePendingSubmissions(cutoff, afterDateModified, afterId, pageSize);
+				for (Document submission : page) {
+					String action = this.reap(submission);
+					meterRegistry.counter("textmining.reaper.submissions", "action", action).increment();
+					if (REDRIVEN.equals(action) || FAILED.equals(action)) {
+						touched++;
+					}
+				}
+				if (page.size() < pageSize) {
+					break;
+				}
+				Document last = page.get(page.size() - 1);
+				afterDateModified = last.get("dateModified");
+				afterId = last.get("_id");
+			}
+			if (touched > 0) {
+				logger.info("Re-driven or failed {} submissions pending since before {}", touched, cutoff);
+			}
+		} catch (Exception e) {
+			logger.error("Problems in reaping stale pending submissions", e);
+		} finally {
+			lock.release(LOCK_NAME);
+		}
+	}
+
+	private String reap(Document submission) {
+		String ftId = submission.getString("ftId");
+		String user = submission.getString("user");
+		Object id = submission.get("_id");
+		Object dateModified = submission.get("dateModified");
+		try {
+			if (outboxEnabled && publicMongoService.existsOutboxMessages(ftId, user)) {
+				// still being published by the outbox relay, which fails the files itself once out of attempts
+				return SKIPPED;
+			}
+
+			List<MLTextObject> messages = new ArrayList<>();
+			List<Document> files = submission.getList("files", Document.class);
+			if (files != null) {
+				for (Document file : files) {
+					String status = file.getString("status");
+					if (status == null || Status.getStatusByLabel(status) == Status.PENDING) {
+						MLTextObject message = new MLTextObject();
+						message.setUser(user);
+						message.setFtId(ftId);
+						message.setStatus(Status.PENDING.getLabel());
+						message.setFilename(file.getString("filename"));
+						message.setUrl(file.getString("url"));
+						messages.add(message);
+					}
+				}
+			}
+
+			Integer redrives = submission.getInteger(TextminingApiPublicMongoService.REDRIVES_FIELD, 0);
+			if (messages.isEmpty() || redrives >= maxRedrives) {
+				List<String> filenames = messages.stream().map(MLTextObject::getFilename).collect(Collectors.toList());
+				if (!publicMongoService.failStalePendingSubmission(id, dateModified, filenames)) {
+					return SKIPPED;
+				}
+				meterRegistry.counter("textmining.reaper.files", "action", FAILED).increment(filenames.size());
+				logger.warn("Marked as failed stale pending submission for ftId {} and user {} after {} re-drives", ftId, user, redrives);
+				return FAILED;
+			}
+
+			List<OutboxMessage> outboxMessages = outboxEnabled ? messages.stream().map(OutboxMessage::new).collect(Collectors.toList()) : null;
+			if (!publicMongoService.redriveStalePendingSubmission(id, dateModified, outboxMessages)) {
+				return SKIPPED;
+			}
+			if (!outboxEnabled) {
+				// files not confirmed are left pending and published again at the next re-drive
+				List<MLTextObject> failedMessages = submissionQueuePublisher.publish(messages);
+				meterRegistry.counter("textmining.reaper.files", "action", ERROR).increment(failedMessages.size());
+				meterRegistry.counter("textmining.reaper.files", "action", REDRIVEN).increment(messages.size() - failedMessages.size());
+			} else {
+				meterRegistry.counter("textmining.reaper.files", "action", REDRIVEN).increment(messages.size());
+			}
+			logger.info("Re-driven {} files of stale pending submission for ftId {} and user {}", messages.size(), ftId, user);
+			return REDRIVEN;
+		} catch (Exception e) {
+			logger.error("Problems in reaping stale pending submission for ftId {} and user {}", ftId, user, e);
+			return ERROR;
+		}
+	}
+}
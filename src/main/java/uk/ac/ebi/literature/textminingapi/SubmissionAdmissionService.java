@@ -0,0 +1,150 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Decides whether a submission can be accepted.
+ * Each user has two in-process {@link TokenBucket}s, one for the requests and one for the files they contain,
+ * and all the submissions are refused while the depth of the submissions queue, refreshed periodically, is above the configured limit.
+ * The buckets are per replica, so the effective budget of a user is the configured one times the replicas behind the load balancer.
+ */
+@Component
+public class SubmissionAdmissionService {
+
+	private static final Logger logger = LoggerFactory.getLogger(SubmissionAdmissionService.class);
+
+	protected static final String RATE_LIMITED_ERROR="Too many submissions for this user, please retry later";
+	protected static final String QUEUE_BACKED_UP_ERROR="The service is processing too many submissions, please retry later";
+
+	private final AmqpAdmin amqpAdmin;
+
+	private final MeterRegistry meterRegistry;
+
+	private final Cache<String, TokenBucket[]> buckets;
+
+	@Value("${rateLimit.enable}")
+	private boolean enabled;
+
+	@Value("${rateLimit.requestsPerMinute}")
+	private long requestsPerMinute;
+
+	@Value("${rateLimit.requestsBurst}")
+	private int requestsBurst;
+
+	@Value("${rateLimit.filesPerMinute}")
+	private long filesPerMinute;
+
+	@Value("${rateLimit.filesBurst}")
+	private int filesBurst;
+
+	@Value("${rateLimit.queue.maxDepth}")
+	private long maxQueueDepth;
+
+	@Value("${rateLimit.queue.retryAfterSeconds}")
+	private long queueRetryAfterSeconds;
+
+	@Value("${rabbitmq.submissionsQueue}")
+	private String SUBMISSIONS_QUEUE;
+
+	private volatile long queueDepth = -1;
+
+	public SubmissionAdmissionService(AmqpAdmin amqpAdmin, MeterRegistry meterRegistry,
+			@Value("${rateLimit.idleExpirySeconds}") long idleExpirySeconds) {
+		this.amqpAdmin = amqpAdmin;
+		this.meterRegistry = meterRegistry;
+		// buckets of idle users are dropped, a new bucket is full anyway, but not before the debt of a large submission is repaid
+		long idleExpiryNanos = TimeUnit.SECONDS.toNanos(idleExpirySeconds);
+		this.buckets = Caffeine.newBuilder().expireAfter(new Expiry<String, TokenBucket[]>() {
+			private long expiry(TokenBucket[] userBuckets) {
+				return Math.max(idleExpiryNanos, Math.max(userBuckets[0].nanosUntilFull(), userBuckets[1].nanosUntilFull()));
+			}
+
+			@Override
+			public long expireAfterCreate(String user, TokenBucket[] userBuckets, long currentTime) {
+				return this.expiry(userBuckets);
+			}
+
+			@Override
+			public long expireAfterUpdate(String user, TokenBucket[] userBuckets, long currentTime, long currentDuration) {
+				return this.expiry(userBuckets);
+			}
+
+			@Override
+			public long expireAfterRead(String user, TokenBucket[] userBuckets, long currentTime, long currentDuration) {
+				return this.expiry(userBuckets);
+			}
+		}).build();
+		meterRegistry.gauge("textmining.submission.queue.depth", this, service -> service.queueDepth);
+	}
+
+	@Scheduled(fixedDelayString = "${rateLimit.queue.refreshMs}")
+	public void refreshQueueDepth() {
+		if (!enabled || maxQueueDepth <= 0) {
+			return;
+		}
+		try {
+			QueueInformation info = amqpAdmin.getQueueInfo(SUBMISSIONS_QUEUE);
+			queueDepth = info != null ? info.getMessageCount() : -1;
+		} catch (Exception e) {
+			// keep admitting on the last known depth rather than refusing everything while the broker is unreachable
+			logger.error("Problems in reading the depth of queue {}", SUBMISSIONS_QUEUE, e);
+		}
+	}
+
+	/**
+	 * Charges the request of the user and its files.
+	 * @return 0 when the submission is admitted, otherwise the seconds after which it may be retried
+	 */
+	public long admit(String user, int files, AtomicReference<String> errorMessage) {
+		if (!enabled) {
+			return 0;
+		}
+
+		if (maxQueueDepth > 0 && queueDepth > maxQueueDepth) {
+			return this.reject("queue", QUEUE_BACKED_UP_ERROR, TimeUnit.SECONDS.toNanos(queueRetryAfterSeconds), errorMessage);
+		}
+
+		TokenBucket[] userBuckets = buckets.get(user, key -> new TokenBucket[] {
+				new TokenBucket(requestsPerMinute, requestsBurst), new TokenBucket(filesPerMinute, filesBurst) });
+		long wait = userBuckets[0].tryAcquire(1);
+		if (wait > 0) {
+			return this.reject("requests", RATE_LIMITED_ERROR, wait, errorMessage);
+		}
+		if (files > 0) {
+			wait = userBuckets[1].tryAcquire(files);
+			if (wait > 0) {
+				userBuckets[0].release(1);
+				return this.reject("files", RATE_LIMITED_ERROR, wait, errorMessage);
+			}
+			if (files > filesBurst) {
+				// the expiry was computed on reading, before the debt was charged
+				buckets.put(user, userBuckets);
+			}
+		}
+
+		meterRegistry.counter("textmining.submission.admission", "outcome", "admitted", "reason", "none").increment();
+		return 0;
+	}
+
+	private long reject(String reason, String error, long waitNanos, AtomicReference<String> errorMessage) {
+		meterRegistry.counter("textmining.submission.admission", "outcome", "rejected", "reason", reason).increment();
+		errorMessage.set(error);
+		// Retry-After is expressed in whole seconds, never suggest retrying immediately
+		return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+	}
+}
@@ -0,0 +1,149 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.Date;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListener;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Subscription;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Follows the change stream of the submissions collection and publishes a {@link SubmissionCompletedEvent}
+ * for every submission written with a status other than pending, whichever process wrote it.
+ * The resume token of the last event is stored, shared by the replicas, so that the stream is opened again from there when it fails
+ * or the application restarts; when the token is no longer in the oplog the stream starts from the current time.
+ */
+@Component
+@ConditionalOnProperty(name = "submission.changeStream.enable", havingValue = "true")
+public class SubmissionChangeStreamListener implements MessageListener<ChangeStreamDocument<Document>, SubmissionMessage> {
+
+	private static final Logger logger = LoggerFactory.getLogger(SubmissionChangeStreamListener.class);
+
+	private static final String RESUME_TOKEN_ID = "submissions";
+
+	private final MongoTemplate mongoTemplate;
+
+	private final ApplicationEventPublisher eventPublisher;
+
+	@Value("${mongoDb.resumeTokensCollection}")
+	private String resumeTokensCollection;
+
+	private MessageListenerContainer container;
+
+	private volatile Subscription subscription;
+
+	private volatile BsonDocument resumeToken;
+
+	// whether an event has been received since the subscription was opened from resumeToken
+	private volatile boolean resumed;
+
+	public SubmissionChangeStreamListener(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher) {
+		this.mongoTemplate = mongoTemplate;
+		this.eventPublisher = eventPublisher;
+	}
+
+	@PostConstruct
+	public void start() {
+		container = new DefaultMessageListenerContainer(mongoTemplate, new SimpleAsyncTaskExecutor("submission-change-stream-"),
+				e -> logger.error("Problems in following the change stream of the submissions collection", e));
+		container.start();
+		resumeToken = this.loadResumeToken();
+		this.subscribe();
+	}
+
+	private void subscribe() {
+		ChangeStreamRequest.ChangeStreamRequestBuilder<SubmissionMessage> builder = ChangeStreamRequest.builder(this)
+				.collection(mongoTemplate.getCollectionName(SubmissionMessage.class))
+				// the looked up document is matched as well, so that the far more frequent pending writes never reach the application
+				.filter(Aggregation.newAggregation(Aggregation.match(Criteria.where("operationType").in("insert", "update", "replace")
+						.and("fullDocument.status").ne(Status.PENDING.getLabel()))))
+				.fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+		if (resumeToken != null) {
+			builder.resumeToken(resumeToken);
+		}
+		resumed = false;
+		subscription = container.register(builder.build(), SubmissionMessage.class);
+		logger.info("Started following the change stream of the submissions collection{}", resumeToken != null ? " from the last event" : "");
+	}
+
+	@Scheduled(fixedDelayString = "${submission.changeStream.checkMs}")
+	public void resubscribe() {
+		if (subscription != null && !subscription.isActive()) {
+			container.remove(subscription);
+			if (resumeToken != null && !resumed) {
+				// failed before any event: most likely the token is no longer in the oplog
+				logger.warn("Change stream of the submissions collection could not be resumed, starting from the current time");
+				resumeToken = null;
+			}
+			this.subscribe();
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (container != null) {
+			container.stop();
+		}
+	}
+
+	private BsonDocument loadResumeToken() {
+		try {
+			Document document = mongoTemplate.findById(RESUME_TOKEN_ID, Document.class, resumeTokensCollection);
+			Object token = document != null ? document.get("token") : null;
+			return token instanceof Document ? ((Document) token).toBsonDocument() : null;
+		} catch (Exception e) {
+			logger.error("Problems in reading the resume token of the submissions change stream", e);
+			return null;
+		}
+	}
+
+	private void saveResumeToken(BsonDocument token) {
+		resumeToken = token;
+		resumed = true;
+		try {
+			mongoTemplate.upsert(Query.query(Criteria.where("_id").is(RESUME_TOKEN_ID)),
+					new Update().set("token", Document.parse(token.toJson())).set("dateModified", new Date()), resumeTokensCollection);
+		} catch (Exception e) {
+			// only matters if the application stops before the next event
+			logger.error("Problems in storing the resume token of the submissions change stream", e);
+		}
+	}
+
+	@Override
+	public void onMessage(Message<ChangeStreamDocument<Document>, SubmissionMessage> message) {
+		SubmissionMessage submission = message.getBody();
+		if (submission != null && Status.getStatusByLabel(submission.getStatus()) != Status.PENDING) {
+			eventPublisher.publishEvent(SubmissionCompletedEvent.of(this, submission));
+		}
+		ChangeStreamDocument<Document> event = message.getRaw();
+		if (event != null && event.getResumeToken() != null) {
+			this.saveResumeToken(event.getResumeToken());
+		}
+	}
+}
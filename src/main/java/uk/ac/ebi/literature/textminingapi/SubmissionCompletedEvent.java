@@ -0,0 +1,59 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import org.springframework.context.ApplicationEvent;
+
+import uk.ac.ebi.literature.textminingapi.pojo.FileInfo;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Published when a stored submission reaches a status other than pending.
+ * The submission carries only the fields returned by the API, user and modification date are kept apart.
+ */
+public class SubmissionCompletedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String user;
+
+	private final Object dateModified;
+
+	private final SubmissionMessage submission;
+
+	public SubmissionCompletedEvent(Object source, String user, Object dateModified, SubmissionMessage submission) {
+		super(source);
+		this.user = user;
+		this.dateModified = dateModified;
+		this.submission = submission;
+	}
+
+	/**
+	 * Event for a stored submission, whose fields not returned by the API are cleared.
+	 */
+	public static SubmissionCompletedEvent of(Object source, SubmissionMessage submission) {
+		String user = submission.getUser();
+		Object dateModified = submission.getDateModified();
+		//irrelevant information not required in API response sat to null
+		submission.setUser(null);
+		submission.set_id(null);
+		submission.setDateInserted(null);
+		submission.setDateModified(null);
+		if (submission.getFiles() != null) {
+			for (FileInfo fileInfo : submission.getFiles()) {
+				fileInfo.setErrorComponent(null);
+			}
+		}
+		return new SubmissionCompletedEvent(source, user, dateModified, submission);
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public Object getDateModified() {
+		return dateModified;
+	}
+
+	public SubmissionMessage getSubmission() {
+		return submission;
+	}
+}
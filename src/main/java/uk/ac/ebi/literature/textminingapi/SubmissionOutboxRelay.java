@@ -0,0 +1,195 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import uk.ac.ebi.literature.textminingapi.pojo.MLTextObject;
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Publishes to the submissions queue the {@link OutboxMessage}s stored together with the submissions in outbox mode.
+ * Each replica claims batches of messages with a lease, publishes them through {@link SubmissionQueuePublisher} and removes the confirmed ones;
+ * the others are retried after a delay and, once out of attempts, their files are marked as failed so that the submission does not stay pending.
+ * A message is published at least once: a replica stopping between the confirm and the removal leaves it to be published again.
+ */
+@Component
+@ConditionalOnProperty(name = "outbox.enable", havingValue = "true")
+public class SubmissionOutboxRelay {
+
+	private static final Logger logger = LoggerFactory.getLogger(SubmissionOutboxRelay.class);
+
+	private final MongoTemplate mongoTemplate;
+
+	private final SubmissionQueuePublisher submissionQueuePublisher;
+
+	private final TextminingApiPublicMongoService publicMongoService;
+
+	private final MeterRegistry meterRegistry;
+
+	@Value("${outbox.batchSize}")
+	private int batchSize;
+
+	@Value("${outbox.maxBatchesPerPoll}")
+	private int maxBatchesPerPoll;
+
+	@Value("${outbox.leaseMs}")
+	private long leaseMs;
+
+	@Value("${outbox.retryDelayMs}")
+	private long retryDelayMs;
+
+	@Value("${outbox.maxAttempts}")
+	private int maxAttempts;
+
+	public SubmissionOutboxRelay(MongoTemplate mongoTemplate, SubmissionQueuePublisher submissionQueuePublisher,
+			TextminingApiPublicMongoService publicMongoService, MeterRegistry meterRegistry) {
+		this.mongoTemplate = mongoTemplate;
+		this.submissionQueuePublisher = submissionQueuePublisher;
+		this.publicMongoService = publicMongoService;
+		this.meterRegistry = meterRegistry;
+	}
+
+	@PostConstruct
+	public void ensureIndexes() {
+		try {
+			mongoTemplate.indexOps(OutboxMessage.class).ensureIndex(new Index().on("lockedUntil", Direction.ASC).on("dateInserted", Direction.ASC));
+			mongoTemplate.indexOps(OutboxMessage.class).ensureIndex(new Index().on("claim", Direction.ASC).sparse());
+		} catch (Exception e) {
+			logger.error("Problems in creating the indexes on the outbox collection", e);
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${outbox.pollDelayMs}")
+	public void relay() {
+		for (int i = 0; i < maxBatchesPerPoll; i++) {
+			List<OutboxMessage> claimed = this.claimBatch();
+			if (claimed.isEmpty()) {
+				return;
+			}
+			this.publish(claimed);
+			if (claimed.size() < batchSize) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Claims up to a batch of due messages in three round trips, whatever the batch size: candidates are read, marked with a claim token
+	 * only if still due, since another replica could have claimed them in between, and read back by token.
+	 */
+	private List<OutboxMessage> claimBatch() {
+		try {
+			Date now = new Date();
+			Query due = Query.query(Criteria.where("lockedUntil").lte(now)).with(Sort.by(Direction.ASC, "dateInserted")).limit(batchSize);
+			due.fields().include("_id");
+			List<String> ids = mongoTemplate.find(due, OutboxMessage.class).stream().map(OutboxMessage::get_id).collect(Collectors.toList());
+			if (ids.isEmpty()) {
+				return Collections.emptyList();
+			}
+			String claim = UUID.randomUUID().toString();
+			mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids).and("lockedUntil").lte(now)),
+					new Update().set("claim", claim).set("lockedUntil", new Date(now.getTime() + leaseMs)), OutboxMessage.class);
+			return mongoTemplate.find(Query.query(Criteria.where("claim").is(claim)), OutboxMessage.class);
+		} catch (Exception e) {
+			logger.error("Problems in claiming messages from the outbox", e);
+			return Collections.emptyList();
+		}
+	}
+
+	private void publish(List<OutboxMessage> claimed) {
+		Map<MLTextObject, OutboxMessage> byMessage = new IdentityHashMap<>();
+		List<MLTextObject> messages = new ArrayList<>(claimed.size());
+		for (OutboxMessage outboxMessage : claimed) {
+			byMessage.put(outboxMessage.getMessage(), outboxMessage);
+			messages.add(outboxMessage.getMessage());
+		}
+		List<MLTextObject> failedMessages = submissionQueuePublisher.publish(messages);
+
+		Set<OutboxMessage> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+		failedMessages.forEach(message -> failed.add(byMessage.get(message)));
+		List<String> published = claimed.stream().filter(outboxMessage -> !failed.contains(outboxMessage)).map(OutboxMessage::get_id).collect(Collectors.toList());
+		try {
+			if (!published.isEmpty()) {
+				mongoTemplate.remove(Query.query(Criteria.where("_id").in(published)), OutboxMessage.class);
+			}
+		} catch (Exception e) {
+			// the lease expires and they are published again
+			logger.error("Problems in removing {} published messages from the outbox", published.size(), e);
+		}
+		meterRegistry.counter("textmining.outbox.relayed", "outcome", TextminingApiPublicMetrics.SUCCESS).increment(published.size());
+		if (failed.isEmpty()) {
+			return;
+		}
+
+		meterRegistry.counter("textmining.outbox.relayed", "outcome", TextminingApiPublicMetrics.FAILURE).increment(failed.size());
+		List<OutboxMessage> exhausted = new ArrayList<>();
+		List<String> retried = new ArrayList<>();
+		for (OutboxMessage outboxMessage : failed) {
+			if (outboxMessage.getAttempts() + 1 >= maxAttempts) {
+				exhausted.add(outboxMessage);
+			} else {
+				retried.add(outboxMessage.get_id());
+			}
+		}
+		logger.warn("{} messages of the outbox not confirmed by the submissions queue, {} of them out of attempts", failed.size(), exhausted.size());
+		try {
+			if (!retried.isEmpty()) {
+				mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(retried)),
+						new Update().inc("attempts", 1).unset("claim").set("lockedUntil", new Date(System.currentTimeMillis() + retryDelayMs)), OutboxMessage.class);
+			}
+		} catch (Exception e) {
+			logger.error("Problems in rescheduling {} messages of the outbox", retried.size(), e);
+		}
+		this.giveUp(exhausted);
+	}
+
+	/**
+	 * Marks as failed the files whose message could not be published, and as failed the submission when none of them could.
+	 */
+	private void giveUp(List<OutboxMessage> exhausted) {
+		Map<List<String>, List<OutboxMessage>> bySubmission = exhausted.stream()
+				.collect(Collectors.groupingBy(outboxMessage -> List.of(outboxMessage.getMessage().getFtId(), outboxMessage.getMessage().getUser())));
+		for (Map.Entry<List<String>, List<OutboxMessage>> entry : bySubmission.entrySet()) {
+			String ftId = entry.getKey().get(0);
+			String user = entry.getKey().get(1);
+			Set<String> filenames = entry.getValue().stream().map(outboxMessage -> outboxMessage.getMessage().getFilename()).collect(Collectors.toSet());
+			try {
+				publicMongoService.updateFilesStatus(ftId, user, filenames, Status.FAILED.getLabel(), false);
+				// the submission is failed only when none of its files could be published
+				mongoTemplate.updateFirst(Query.query(TextminingApiPublicMongoService.bySubmission(ftId, user)
+						.and("files").not().elemMatch(Criteria.where("status").ne(Status.FAILED.getLabel()))),
+						new Update().set("status", Status.FAILED.getLabel()).set("dateModified", new Date()), SubmissionMessage.class);
+				mongoTemplate.remove(Query.query(Criteria.where("_id").in(entry.getValue().stream().map(OutboxMessage::get_id).collect(Collectors.toList()))), OutboxMessage.class);
+				logger.error("Gave up publishing files {} of submission for ftId {} and user {}", filenames, ftId, user);
+			} catch (Exception e) {
+				logger.error("Problems in marking as failed files {} of submission for ftId {} and user {}", filenames, ftId, user, e);
+			}
+		}
+	}
+}
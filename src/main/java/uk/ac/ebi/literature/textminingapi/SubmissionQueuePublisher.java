@@ -0,0 +1,173 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.connection.RabbitConnectionFactoryBean;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.CachingConnectionFactoryConfigurer;
+import org.springframework.boot.autoconfigure.amqp.RabbitConnectionFactoryBeanConfigurer;
+import org.springframework.stereotype.Component;
+
+import uk.ac.ebi.literature.textminingapi.pojo.MLTextObject;
+import uk.ac.ebi.literature.textminingapi.service.MLQueueSenderService;
+
+/**
+ * Publishes the per-file messages of submissions to the submissions queue.
+ * In pipelined mode all the messages are published on a dedicated confirm channel without waiting
+ * for each broker acknowledgement, then the confirms are awaited together within a single deadline.
+ */
+@Component
+public class SubmissionQueuePublisher implements DisposableBean {
+
+	private static final Logger logger = LoggerFactory.getLogger(SubmissionQueuePublisher.class);
+
+	private final MLQueueSenderService queueSenderService;
+
+	@Value("${rabbitmq.tmExchange}")
+	private String PUBLISH_EXCHANGE;
+
+	@Value("${rabbitmq.submissionsQueue}")
+	private String SUBMISSIONS_QUEUE;
+
+	@Value("${rabbitmq.submissionQueue.confirmTimeoutMs}")
+	private long confirmTimeoutMs;
+
+	private final CachingConnectionFactory confirmConnectionFactory;
+
+	private final RabbitTemplate confirmTemplate;
+
+	public SubmissionQueuePublisher(MLQueueSenderService queueSenderService, RabbitTemplate rabbitTemplate,
+			ObjectProvider<RabbitConnectionFactoryBeanConfigurer> rabbitConnectionFactoryBeanConfigurer,
+			ObjectProvider<CachingConnectionFactoryConfigurer> cachingConnectionFactoryConfigurer,
+			@Value("${rabbitmq.submissionQueue.pipelined}") boolean pipelined) throws Exception {
+		this.queueSenderService = queueSenderService;
+		RabbitConnectionFactoryBeanConfigurer factoryBeanConfigurer = rabbitConnectionFactoryBeanConfigurer.getIfAvailable();
+		CachingConnectionFactoryConfigurer connectionFactoryConfigurer = cachingConnectionFactoryConfigurer.getIfAvailable();
+		if (pipelined && factoryBeanConfigurer != null && connectionFactoryConfigurer != null) {
+			// same broker settings as the auto-configured connection factory, but with correlated publisher confirms
+			RabbitConnectionFactoryBean factoryBean = new RabbitConnectionFactoryBean();
+			factoryBeanConfigurer.configure(factoryBean);
+			factoryBean.afterPropertiesSet();
+			this.confirmConnectionFactory = new CachingConnectionFactory(factoryBean.getObject());
+			connectionFactoryConfigurer.configure(this.confirmConnectionFactory);
+			this.confirmConnectionFactory.setPublisherConfirmType(ConfirmType.CORRELATED);
+			this.confirmTemplate = new RabbitTemplate(this.confirmConnectionFactory);
+			this.confirmTemplate.setMessageConverter(rabbitTemplate.getMessageConverter());
+		} else {
+			if (pipelined) {
+				logger.warn("Pipelined publishing requires the auto-configured RabbitMQ connection factory, falling back to sequential publishing");
+			}
+			this.confirmConnectionFactory = null;
+			this.confirmTemplate = null;
+		}
+	}
+
+	/**
+	 * @return the messages that the broker did not confirm, empty when all of them have been published
+	 */
+	public List<MLTextObject> publish(List<MLTextObject> messages) {
+		if (confirmTemplate != null) {
+			return this.publishPipelined(messages);
+		}
+		return this.publishSequential(messages);
+	}
+
+	private List<MLTextObject> publishSequential(List<MLTextObject> messages) {
+		List<MLTextObject> failed = new ArrayList<>();
+		for (int i = 0; i < messages.size(); i++) {
+			MLTextObject message = messages.get(i);
+			boolean sent;
+			try {
+				sent = queueSenderService.sendMessageToQueue(SUBMISSIONS_QUEUE, message, PUBLISH_EXCHANGE);
+			} catch (AmqpException e) {
+				logger.error("Error in publishing message to submission queue {}", message, e);
+				sent = false;
+			}
+			if (!sent) {
+				logger.error("Error in storing message to submission queue {}", message);
+				// the broker is not reachable, the remaining messages are not attempted
+				failed.addAll(messages.subList(i, messages.size()));
+				break;
+			}
+		}
+		return failed;
+	}
+
+	private List<MLTextObject> publishPipelined(List<MLTextObject> messages) {
+		List<CorrelationData> confirms = this.sendWithConfirms(messages);
+
+		List<MLTextObject> failed = new ArrayList<>();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+		for (int i = 0; i < messages.size(); i++) {
+			if (!this.isConfirmed(confirms.get(i), deadline)) {
+				logger.error("Message not confirmed by submission queue {}", messages.get(i));
+				failed.add(messages.get(i));
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * @return the correlation of each message with its pending confirm, null for the messages that could not be sent
+	 */
+	private List<CorrelationData> sendWithConfirms(List<MLTextObject> messages) {
+		List<CorrelationData> confirms = new ArrayList<>(messages.size());
+		try {
+			confirmTemplate.invoke(operations -> {
+				for (MLTextObject message : messages) {
+					CorrelationData correlationData = new CorrelationData();
+					try {
+						operations.convertAndSend(PUBLISH_EXCHANGE, SUBMISSIONS_QUEUE, message, correlationData);
+						confirms.add(correlationData);
+					} catch (Exception e) {
+						logger.error("Error in publishing message to submission queue {}", message, e);
+						confirms.add(null);
+					}
+				}
+				return null;
+			});
+		} catch (AmqpException e) {
+			// no channel could be obtained, i.e. the broker is down: the messages not sent yet are failed
+			logger.error("Error in publishing {} messages to submission queue", messages.size() - confirms.size(), e);
+		}
+		while (confirms.size() < messages.size()) {
+			confirms.add(null);
+		}
+		return confirms;
+	}
+
+	private boolean isConfirmed(CorrelationData correlationData, long deadline) {
+		if (correlationData == null) {
+			return false;
+		}
+		try {
+			long remaining = Math.max(0, deadline - System.nanoTime());
+			return correlationData.getFuture().get(remaining, TimeUnit.NANOSECONDS).isAck();
+		} catch (TimeoutException | ExecutionException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (confirmConnectionFactory != null) {
+			confirmConnectionFactory.destroy();
+		}
+	}
+}
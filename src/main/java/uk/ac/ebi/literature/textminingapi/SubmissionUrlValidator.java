@@ -0,0 +1,87 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.validator.routines.UrlValidator;
+
+/**
+ * Validates the URLs of a single submission with the same outcome as {@link UrlValidator} allowing local URLs,
+ * without running its regular expressions for the common case.
+ * The scheme and authority of each URL are checked once per submission, since the files of a submission usually share the host,
+ * and a path made only of unreserved characters with a plain query is accepted by a character scan.
+ * Anything else is left to the shared {@link UrlValidator}, so the fast path can only accept URLs that it would accept as well.
+ * Instances are not thread-safe and are meant to live for the validation of one submission.
+ */
+class SubmissionUrlValidator {
+
+	// immutable once built, hence safe to share between threads
+	private static final UrlValidator URL_VALIDATOR = new UrlValidator(UrlValidator.ALLOW_LOCAL_URLS);
+
+	private static final String SCHEME_SEPARATOR = "://";
+
+	private final Map<String, Boolean> validAuthorities = new HashMap<>();
+
+	boolean isValid(String url) {
+		int schemeEnd = url.indexOf(SCHEME_SEPARATOR);
+		if (schemeEnd <= 0 || !isDefaultScheme(url, schemeEnd)) {
+			return URL_VALIDATOR.isValid(url);
+		}
+
+		int authorityEnd = schemeEnd + SCHEME_SEPARATOR.length();
+		while (authorityEnd < url.length() && "/?#".indexOf(url.charAt(authorityEnd)) < 0) {
+			authorityEnd++;
+		}
+		// an invalid authority makes the whole URL invalid whatever follows it
+		String schemeAndAuthority = url.substring(0, authorityEnd);
+		if (!validAuthorities.computeIfAbsent(schemeAndAuthority, URL_VALIDATOR::isValid)) {
+			return false;
+		}
+
+		return isPlainPathAndQuery(url, authorityEnd) || URL_VALIDATOR.isValid(url);
+	}
+
+	private static boolean isDefaultScheme(String url, int schemeEnd) {
+		return (schemeEnd == 4 && url.regionMatches(true, 0, "http", 0, 4))
+				|| (schemeEnd == 5 && url.regionMatches(true, 0, "https", 0, 5))
+				|| (schemeEnd == 3 && url.regionMatches(true, 0, "ftp", 0, 3));
+	}
+
+	/**
+	 * True for an empty path or an absolute path made of unreserved characters, without empty or dot segments,
+	 * optionally followed by a query of printable ASCII characters and no fragment.
+	 */
+	private static boolean isPlainPathAndQuery(String url, int start) {
+		int i = start;
+		if (i < url.length() && url.charAt(i) != '/' && url.charAt(i) != '?') {
+			return false;
+		}
+		char previous = 0;
+		for (; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if (c == '?') {
+				break;
+			}
+			boolean unreserved = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '~';
+			if (c == '/') {
+				if (previous == '/') {
+					return false;
+				}
+			} else if (c == '.') {
+				if (previous == '/') {
+					return false;
+				}
+			} else if (!unreserved) {
+				return false;
+			}
+			previous = c;
+		}
+		for (; i < url.length(); i++) {
+			char c = url.charAt(i);
+			if (c <= ' ' || c > '~' || c == '#') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,45 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.Date;
+
+import org.springframework.http.MediaType;
+
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+
+/**
+ * Version of a submission, taken from its modification date, which changes on every resubmission and status update.
+ * It keys the cached annotations and gives the entity tag of the status and annotations responses.
+ */
+public class SubmissionVersion {
+
+	private final long version;
+
+	private final boolean completed;
+
+	public SubmissionVersion(Object dateModified, String status) {
+		this.version = dateModified instanceof Date ? ((Date) dateModified).getTime() : dateModified != null ? dateModified.toString().hashCode() : 0;
+		this.completed = status != null && Status.getStatusByLabel(status) != Status.PENDING;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if the submission is in a final status, so that its annotations do not change at this version
+	 */
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	public String getETag() {
+		return "\"" + Long.toHexString(version) + "\"";
+	}
+
+	/**
+	 * Entity tag of one of the representations of the same version, i.e. the JSON, CBOR and Smile encodings of the annotations.
+	 */
+	public String getETag(MediaType mediaType) {
+		return "\"" + Long.toHexString(version) + "-" + mediaType.getSubtype() + "\"";
+	}
+}
@@ -0,0 +1,143 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Keeps the Server-Sent Events connections of clients waiting for their submissions to complete,
+ * either for a single ft_id or for all the submissions of the user, and notifies them on {@link SubmissionCompletedEvent}.
+ * The events are written by a dedicated pool, so that a slow client does not hold back the change stream publishing them.
+ * Completions are only known from the change stream, so without it nothing can be watched.
+ */
+@Component
+public class SubmissionWatchService {
+
+	private static final Logger logger = LoggerFactory.getLogger(SubmissionWatchService.class);
+
+	private static final String STATUS_EVENT = "status";
+
+	private final ConcurrentHashMap<String, Set<SseEmitter>> submissionWatchers = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, Set<SseEmitter>> userWatchers = new ConcurrentHashMap<>();
+
+	@Value("${submission.watch.timeoutMs}")
+	private long timeoutMs;
+
+	@Value("${submission.changeStream.enable}")
+	private boolean changeStreamEnabled;
+
+	private final ThreadPoolTaskExecutor executor;
+
+	public SubmissionWatchService(@Value("${submission.watch.sendPoolSize}") int sendPoolSize, @Value("${submission.watch.sendQueueCapacity}") int sendQueueCapacity) {
+		this.executor = new ThreadPoolTaskExecutor();
+		this.executor.setCorePoolSize(sendPoolSize);
+		this.executor.setMaxPoolSize(sendPoolSize);
+		this.executor.setQueueCapacity(sendQueueCapacity);
+		this.executor.setThreadNamePrefix("submission-watch-");
+		this.executor.initialize();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public boolean isAvailable() {
+		return changeStreamEnabled;
+	}
+
+	private static String submissionKey(String user, String ftId) {
+		return user + '\u0000' + ftId;
+	}
+
+	public SseEmitter newEmitter() {
+		return new SseEmitter(timeoutMs);
+	}
+
+	public void watchSubmission(String user, String ftId, SseEmitter emitter) {
+		this.register(submissionWatchers, submissionKey(user, ftId), emitter);
+	}
+
+	public void unwatchSubmission(String user, String ftId, SseEmitter emitter) {
+		this.unregister(submissionWatchers, submissionKey(user, ftId), emitter);
+	}
+
+	public void watchUser(String user, SseEmitter emitter) {
+		this.register(userWatchers, user, emitter);
+	}
+
+	private void register(ConcurrentHashMap<String, Set<SseEmitter>> watchers, String key, SseEmitter emitter) {
+		watchers.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(emitter);
+		Runnable removal = () -> this.unregister(watchers, key, emitter);
+		emitter.onCompletion(removal);
+		emitter.onTimeout(removal);
+		emitter.onError(e -> removal.run());
+	}
+
+	private void unregister(ConcurrentHashMap<String, Set<SseEmitter>> watchers, String key, SseEmitter emitter) {
+		watchers.computeIfPresent(key, (k, emitters) -> {
+			emitters.remove(emitter);
+			return emitters.isEmpty() ? null : emitters;
+		});
+	}
+
+	/**
+	 * Sends the submission to the emitter and closes it.
+	 */
+	public void complete(SseEmitter emitter, SubmissionMessage submission) {
+		if (this.send(emitter, submission)) {
+			emitter.complete();
+		}
+	}
+
+	@EventListener
+	public void onSubmissionCompleted(SubmissionCompletedEvent event) {
+		SubmissionMessage submission = event.getSubmission();
+		String user = event.getUser();
+
+		Set<SseEmitter> emitters = submissionWatchers.remove(submissionKey(user, submission.getFtId()));
+		if (emitters != null) {
+			emitters.forEach(emitter -> this.sendAsync(emitter, () -> this.complete(emitter, submission)));
+		}
+		emitters = userWatchers.get(user);
+		if (emitters != null) {
+			emitters.forEach(emitter -> this.sendAsync(emitter, () -> this.send(emitter, submission)));
+		}
+	}
+
+	private void sendAsync(SseEmitter emitter, Runnable send) {
+		try {
+			executor.execute(send);
+		} catch (TaskRejectedException e) {
+			// the client reconnects and finds the status with a plain request
+			logger.warn("Too many submission events waiting to be sent, closing the connection of a watcher");
+			emitter.completeWithError(e);
+		}
+	}
+
+	private boolean send(SseEmitter emitter, SubmissionMessage submission) {
+		try {
+			emitter.send(SseEmitter.event().name(STATUS_EVENT).id(submission.getFtId()).data(submission, MediaType.APPLICATION_JSON));
+			return true;
+		} catch (IOException | IllegalStateException e) {
+			// the client went away or the emitter is already completed
+			logger.debug("Problems in notifying completion of submission for ftId {}", submission.getFtId(), e);
+			return false;
+		}
+	}
+}
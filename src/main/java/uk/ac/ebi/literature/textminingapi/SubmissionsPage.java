@@ -0,0 +1,38 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.List;
+
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Page of the submissions of a user, with the cursor of the next page, null when this is the last one.
+ */
+public class SubmissionsPage {
+
+	private List<SubmissionMessage> submissions;
+	private String nextCursor;
+
+	public SubmissionsPage() {
+	}
+
+	public SubmissionsPage(List<SubmissionMessage> submissions, String nextCursor) {
+		this.submissions = submissions;
+		this.nextCursor = nextCursor;
+	}
+
+	public List<SubmissionMessage> getSubmissions() {
+		return submissions;
+	}
+
+	public void setSubmissions(List<SubmissionMessage> submissions) {
+		this.submissions = submissions;
+	}
+
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+}
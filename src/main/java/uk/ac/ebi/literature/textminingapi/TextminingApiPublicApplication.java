@@ -6,9 +6,11 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.context.annotation.PropertySources;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableMongoAuditing
+@EnableScheduling
 @PropertySources({ @PropertySource("classpath:application-utility.properties"),
 		@PropertySource(value = "classpath:application-utility-${spring.profiles.active}.properties") })
 public class TextminingApiPublicApplication implements CommandLineRunner {
@@ -1,21 +1,39 @@
 package uk.ac.ebi.literature.textminingapi;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import uk.ac.ebi.literature.textminingapi.pojo.AnnotationsData;
 import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
@@ -24,12 +42,26 @@ import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
 @RequestMapping("")
 public class TextminingApiPublicController {
 	
+	private static final String NDJSON_VALUE = "application/x-ndjson";
+	
+	protected static final String STREAMING_BUSY_ERROR = "Too many streamed responses in progress, retry later";
+	
+	private static final String STREAMING_RETRY_AFTER_SECONDS = "5";
+	
+	protected static final String WATCH_UNAVAILABLE_ERROR = "Watching submissions is not available, poll /getSubmissionStatus instead";
+	
 	private final TextminingApiPublicService textminingApiService;
+	
+	private final ObjectMapper objectMapper;
+	
+	private final IdempotencyService idempotencyService;
     
 	private static Logger logger = LoggerFactory.getLogger(TextminingApiPublicController.class);
 
-    public TextminingApiPublicController(TextminingApiPublicService textminingApiService) {
+    public TextminingApiPublicController(TextminingApiPublicService textminingApiService, ObjectMapper objectMapper, IdempotencyService idempotencyService) {
         this.textminingApiService = textminingApiService;
+        this.objectMapper = objectMapper;
+        this.idempotencyService = idempotencyService;
     }
 
     @RequestMapping(value = "/delete/{ftId}", method = RequestMethod.DELETE)
@@ -53,11 +85,22 @@ public class TextminingApiPublicController {
     
     
     @RequestMapping(value = "/submit", method = RequestMethod.POST)
-    public ResponseEntity<List<String>> submit(@RequestBody SubmissionMessage inputData) {
+    public ResponseEntity<List<String>> submit(@RequestBody SubmissionMessage inputData, @RequestParam(name="failFast", defaultValue="false") boolean failFast,
+    		@RequestHeader(name=IdempotencyService.IDEMPOTENCY_KEY_HEADER, required=false) String idempotencyKey) {
+    	
+    	return idempotencyService.execute(textminingApiService.getUsername(), idempotencyKey, inputData.getFtId(), () -> this.processSubmission(inputData, failFast));
+    }
+    
+    private ResponseEntity<List<String>> processSubmission(SubmissionMessage inputData, boolean failFast) {
      
         AtomicReference<List<String>> errors = new AtomicReference<List<String>>(new ArrayList<String>());
 
-        boolean success = textminingApiService.processSubmission(inputData, errors);
+        long retryAfter = textminingApiService.admitSubmissions(Collections.singletonList(inputData), errors);
+        if (retryAfter > 0) {
+        	return this.tooManyRequests(errors.get(), retryAfter);
+        }
+
+        boolean success = textminingApiService.processSubmission(inputData, failFast, errors);
 
         HttpStatus retStatus = success ? HttpStatus.OK : HttpStatus.BAD_REQUEST;
         ResponseEntity<List<String>> ret = new ResponseEntity<List<String>>(errors.get(), retStatus);
@@ -65,42 +108,243 @@ public class TextminingApiPublicController {
         return ret;
     }
     
+    @RequestMapping(value = "/submitBatch", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> submitBatch(@RequestBody List<SubmissionMessage> inputData, @RequestParam(name="failFast", defaultValue="false") boolean failFast) {
+    	
+    	AtomicReference<List<String>> errors = new AtomicReference<List<String>>(new ArrayList<String>());
+    	
+    	long retryAfter = textminingApiService.admitSubmissions(inputData, errors);
+    	if (retryAfter > 0) {
+    		return this.tooManyRequests(errors.get(), retryAfter);
+    	}
+    	
+    	List<BatchSubmissionResult> results = textminingApiService.processBatchSubmission(inputData, failFast, errors);
+    	
+    	if (results == null) {
+    		return new ResponseEntity<List<String>>(errors.get(), HttpStatus.BAD_REQUEST);
+    	}
+    	return new ResponseEntity<List<BatchSubmissionResult>>(results, HttpStatus.OK);
+    }
+    
+    private ResponseEntity<List<String>> tooManyRequests(List<String> errors, long retryAfterSeconds) {
+    	return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds)).body(errors);
+    }
+    
+    @RequestMapping(value = "/submitBatch", method = RequestMethod.POST, consumes = NDJSON_VALUE)
+    public ResponseEntity<?> submitBatchNdjson(InputStream body, @RequestParam(name="failFast", defaultValue="false") boolean failFast) throws IOException {
+    	
+    	List<SubmissionMessage> inputData = new ArrayList<>();
+    	try (MappingIterator<SubmissionMessage> iterator = objectMapper.readerFor(SubmissionMessage.class).readValues(body)) {
+    		// one line more than the maximum is enough for the batch to be rejected as too large, the rest is not read
+    		int maxBatchSize = textminingApiService.getMaxBatchSize();
+    		while (inputData.size() <= maxBatchSize && iterator.hasNext()) {
+    			inputData.add(iterator.next());
+    		}
+    	} catch (JsonProcessingException e) {
+    		logger.error("Batch submission rejected as not valid NDJSON", e);
+    		List<String> errors = new ArrayList<String>();
+    		errors.add(e.getOriginalMessage());
+    		return new ResponseEntity<List<String>>(errors, HttpStatus.BAD_REQUEST);
+    	}
+    	
+    	return this.submitBatch(inputData, failFast);
+    }
+    
+    @RequestMapping(value = "/getAnnotations", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getAnnotations(@RequestBody List<AnnotationsRequest> requests) {
+    	
+    	return this.getAnnotations(requests, false);
+    }
+    
+    @RequestMapping(value = "/getAnnotations", method = RequestMethod.POST, produces = NDJSON_VALUE)
+    public ResponseEntity<?> getAnnotationsNdjson(@RequestBody List<AnnotationsRequest> requests) {
+    	
+    	return this.getAnnotations(requests, true);
+    }
+    
+    private ResponseEntity<?> getAnnotations(List<AnnotationsRequest> requests, boolean ndjson) {
+    	
+    	AtomicReference<List<String>> errors = new AtomicReference<List<String>>(new ArrayList<String>());
+    	
+    	StreamingResponseBody body = textminingApiService.streamAnnotationsData(requests, ndjson, errors);
+    	
+    	if (body == null) {
+    		return new ResponseEntity<List<String>>(errors.get(), HttpStatus.BAD_REQUEST);
+    	}
+    	return ResponseEntity.ok().contentType(ndjson ? MediaType.parseMediaType(NDJSON_VALUE) : MediaType.APPLICATION_JSON).body(body);
+    }
+    
     @RequestMapping(value = "/getAnnotations/{ftId}/{filename}", method = RequestMethod.GET)
-    public ResponseEntity<AnnotationsData> getAnnotations(@PathVariable(required=true, name="ftId") String ftId, @PathVariable(required=true, name="filename") String filename) {
+    public ResponseEntity<?> getAnnotations(@PathVariable(required=true, name="ftId") String ftId, @PathVariable(required=true, name="filename") String filename, WebRequest webRequest, HttpServletResponse response) throws JsonProcessingException {
         
-    	AnnotationsData annotationsData = textminingApiService.getAnnotationsData(ftId, filename);
+    	// the representation depends on Accept, so must the cached responses, 304 included
+    	response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    	MediaType binaryFormat = BinaryFormatsConfiguration.getPreferredBinaryFormat(webRequest.getHeader(HttpHeaders.ACCEPT));
+    	
+    	// the version, read from the index only, gives the ETag of every response and keys the cache
+    	SubmissionVersion version = textminingApiService.getSubmissionVersion(ftId);
+    	if (version == null) {
+    		return new ResponseEntity<byte[]>(HttpStatus.NOT_FOUND);
+    	}
+    	String eTag = version.getETag(binaryFormat != null ? binaryFormat : MediaType.APPLICATION_JSON);
+    	if (this.isConditional(webRequest) && webRequest.checkNotModified(eTag)) {
+    		return null;
+    	}
+    	
+    	if (binaryFormat != null) {
+    		// the cache holds JSON only, binary formats are serialised by the message converters
+    		AnnotationsData annotationsData = textminingApiService.getAnnotationsData(ftId, filename);
+    		if (annotationsData == null) {
+    			return new ResponseEntity<AnnotationsData>(HttpStatus.NOT_FOUND);
+    		}
+    		return ResponseEntity.ok().contentType(binaryFormat).eTag(eTag).body(annotationsData);
+    	}
+    	
+    	byte[] annotationsData = textminingApiService.getAnnotationsDataJson(ftId, filename, version);
 
-        HttpStatus retStatus = annotationsData!=null ? HttpStatus.OK : HttpStatus.NOT_FOUND;
-        ResponseEntity<AnnotationsData> ret = new ResponseEntity<AnnotationsData>(annotationsData, retStatus);
-        
-        return ret;
+        if (annotationsData == null) {
+        	return new ResponseEntity<byte[]>(HttpStatus.NOT_FOUND);
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).eTag(eTag).body(annotationsData);
     }
     
     @RequestMapping(value = "/getAnnotations/{ftId}", method = RequestMethod.GET)
-    public ResponseEntity<List<AnnotationsData>> getAnnotations(@PathVariable(required=true, name="ftId") String ftId) {
+    public ResponseEntity<List<AnnotationsData>> getAnnotations(@PathVariable(required=true, name="ftId") String ftId, WebRequest webRequest, HttpServletResponse response) {
         
+    	// JSON, CBOR or Smile as for a single file, each with its own ETag
+    	response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    	MediaType binaryFormat = BinaryFormatsConfiguration.getPreferredBinaryFormat(webRequest.getHeader(HttpHeaders.ACCEPT));
+    	MediaType mediaType = binaryFormat != null ? binaryFormat : MediaType.APPLICATION_JSON;
+    	
+    	// the version, read from the index only, gives the ETag of every response
+    	SubmissionVersion version = textminingApiService.getSubmissionVersion(ftId);
+    	if (version == null) {
+    		return new ResponseEntity<List<AnnotationsData>>(HttpStatus.NOT_FOUND);
+    	}
+    	String eTag = version.getETag(mediaType);
+    	if (this.isConditional(webRequest) && webRequest.checkNotModified(eTag)) {
+    		return null;
+    	}
+    	
     	List<AnnotationsData> annotationsDataList = textminingApiService.getAnnotationsData(ftId);
 
-        HttpStatus retStatus = (annotationsDataList!=null && !annotationsDataList.isEmpty()) ? HttpStatus.OK : HttpStatus.NOT_FOUND;
-        ResponseEntity<List<AnnotationsData>> ret = new ResponseEntity<List<AnnotationsData>>(annotationsDataList, retStatus);
-        
-        return ret;
+    	if (annotationsDataList == null || annotationsDataList.isEmpty()) {
+    		return new ResponseEntity<List<AnnotationsData>>(HttpStatus.NOT_FOUND);
+    	}
+        return ResponseEntity.ok().contentType(mediaType).eTag(eTag).body(annotationsDataList);
+    }
+    
+    @RequestMapping(value = "/streamAnnotations/{ftId}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAnnotations(@PathVariable(required=true, name="ftId") String ftId) {
+    	
+    	return this.streamAnnotations(ftId, false);
+    }
+    
+    @RequestMapping(value = "/streamAnnotations/{ftId}", method = RequestMethod.GET, produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAnnotationsNdjson(@PathVariable(required=true, name="ftId") String ftId) {
+    	
+    	return this.streamAnnotations(ftId, true);
+    }
+    
+    private ResponseEntity<StreamingResponseBody> streamAnnotations(String ftId, boolean ndjson) {
+    	
+    	StreamingResponseBody body = textminingApiService.streamAnnotationsData(ftId, ndjson);
+    	
+    	if (body == null) {
+    		return new ResponseEntity<StreamingResponseBody>(HttpStatus.NOT_FOUND);
+    	}
+    	return ResponseEntity.ok().contentType(ndjson ? MediaType.parseMediaType(NDJSON_VALUE) : MediaType.APPLICATION_JSON).body(body);
     }
     
     @RequestMapping(value = "/getSubmissionStatus/{ftId}", method = RequestMethod.GET)
-    public ResponseEntity<SubmissionMessage> getSubmissionStatus(@PathVariable(required=true, name="ftId") String ftId) {
+    public ResponseEntity<SubmissionMessage> getSubmissionStatus(@PathVariable(required=true, name="ftId") String ftId, WebRequest webRequest) {
         
-    	SubmissionMessage submissionData = textminingApiService.getSubmissionStatus(ftId);
+    	// a match is answered from the index only, without loading the files of the submission
+    	if (this.isConditional(webRequest)) {
+    		SubmissionVersion version = textminingApiService.getSubmissionVersion(ftId);
+    		if (version == null) {
+    			return new ResponseEntity<SubmissionMessage>(HttpStatus.NOT_FOUND);
+    		}
+    		if (webRequest.checkNotModified(version.getETag())) {
+    			return null;
+    		}
+    	}
+    	
+    	AtomicReference<String> eTag = new AtomicReference<String>();
+    	SubmissionMessage submissionData = textminingApiService.getSubmissionStatus(ftId, eTag);
 
-        HttpStatus retStatus = submissionData!=null ? HttpStatus.OK : HttpStatus.NOT_FOUND;
-        ResponseEntity<SubmissionMessage> ret = new ResponseEntity<SubmissionMessage>(submissionData, retStatus);
-        
-        return ret;
+    	if (submissionData == null) {
+    		return new ResponseEntity<SubmissionMessage>(HttpStatus.NOT_FOUND);
+    	}
+        return ResponseEntity.ok().eTag(eTag.get()).body(submissionData);
+    }
+    
+    @RequestMapping(value = "/submissions", method = RequestMethod.GET)
+    public ResponseEntity<?> listSubmissions(@RequestParam(name="status", required=false) List<String> statuses,
+    		@RequestParam(name="modifiedSince", required=false) String modifiedSince, @RequestParam(name="cursor", required=false) String cursor,
+    		@RequestParam(name="limit", defaultValue="100") int limit, @RequestParam(name="includeFiles", defaultValue="false") boolean includeFiles) {
+    	
+    	AtomicReference<List<String>> errors = new AtomicReference<List<String>>(new ArrayList<String>());
+    	
+    	SubmissionsPage page = textminingApiService.listSubmissions(statuses, modifiedSince, cursor, limit, includeFiles, errors);
+    	
+    	if (page == null) {
+    		return new ResponseEntity<List<String>>(errors.get(), HttpStatus.BAD_REQUEST);
+    	}
+    	return new ResponseEntity<SubmissionsPage>(page, HttpStatus.OK);
+    }
+    
+    @RequestMapping(value = "/watch/{ftId}", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> watch(@PathVariable(required=true, name="ftId") String ftId) {
+    	
+    	if (!textminingApiService.isWatchAvailable()) {
+    		return this.watchUnavailable();
+    	}
+    	
+    	SseEmitter emitter = textminingApiService.watchSubmission(ftId);
+    	
+    	HttpStatus retStatus = emitter!=null ? HttpStatus.OK : HttpStatus.NOT_FOUND;
+    	return new ResponseEntity<SseEmitter>(emitter, retStatus);
+    }
+    
+    @RequestMapping(value = "/watch", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> watch() {
+    	
+    	if (!textminingApiService.isWatchAvailable()) {
+    		return this.watchUnavailable();
+    	}
+    	
+    	return ResponseEntity.ok(textminingApiService.watchSubmissions());
+    }
+    
+    /**
+     * Without the change stream no completion would ever be sent, the connection would only time out.
+     */
+    private ResponseEntity<List<String>> watchUnavailable() {
+    	return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.APPLICATION_JSON)
+    			.body(Collections.singletonList(WATCH_UNAVAILABLE_ERROR));
+    }
+    
+    /**
+     * Conditional requests are answered from the version of the submission before anything else is loaded, so that a match skips loading and serialising.
+     */
+    private boolean isConditional(WebRequest webRequest) {
+    	return webRequest.getHeader(HttpHeaders.IF_NONE_MATCH) != null;
+    }
+    
+    /**
+     * A streamed response refused because all the threads writing streamed responses are busy and their queue is full.
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<List<String>> streamingRejected(RejectedExecutionException e) {
+    	logger.warn("Streamed response refused, too many of them in progress");
+    	return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, STREAMING_RETRY_AFTER_SECONDS)
+    			.body(Collections.singletonList(STREAMING_BUSY_ERROR));
     }
     
     @PostMapping("result")
 	public ResponseEntity<?> result(@RequestBody SubmissionMessage submissionMessage) {
-		logger.info("Request Arrived -> " + submissionMessage);
+		logger.info("Request Arrived -> {}", submissionMessage);
 		return new ResponseEntity<>(HttpStatus.OK);
 	}
 }
\ No newline at end of file
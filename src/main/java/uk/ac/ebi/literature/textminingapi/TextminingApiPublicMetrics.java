@@ -0,0 +1,133 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Micrometer meters of the API operations: a timer for each operation as a whole and one for each of its stages, tagged by outcome,
+ * counters of the validation errors by type and the distributions of files per submission and of response sizes.
+ * Timers publish a percentile histogram, so that latency percentiles can be aggregated across replicas.
+ */
+@Component
+public class TextminingApiPublicMetrics {
+
+	public static final String SUCCESS = "success";
+	public static final String FAILURE = "failure";
+	public static final String INVALID = "invalid";
+	public static final String NOT_FOUND = "not_found";
+	public static final String CACHED = "cached";
+
+	private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+	// error messages of the validator by type, messages with parameters are matched on the text before the first parameter
+	private static final Map<String, String> VALIDATION_ERROR_TYPES = new LinkedHashMap<>();
+
+	static {
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.NULL_ERROR, "null_submission");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.FT_ID_EMPTY_ERROR, "ft_id_empty");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.FT_ID_EMPTY_URL_PATH_DELETE_ERROR, "ft_id_empty");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.SUBMISSION_ALREADY_EXISTING_ERROR, "submission_pending");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.SUBMISSION_NOT_FOUND_ERROR, "submission_not_found");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.SUBMISSION_PENDING_ERROR_DELETION, "submission_pending");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.CALLBACK_EMPTY_ERROR, "callback_empty");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.CALLBACK_INVALID_URL_ERROR, "callback_invalid_url");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.CALLBACK_HOST_NOT_ALLOWED_ERROR, "callback_host_not_allowed");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.CALLBACK_NOT_ALLOWED_ERROR, "callback_not_allowed");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.NO_FILE_ERROR, "no_file");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.FILE_URL_NOT_VALID_ERROR, "file_url_invalid");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.FILE_URL_EMPTY_ERROR, "file_url_empty");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.FILE_NAME_EMPTY_ERROR, "filename_empty");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.DUPLICATE_FILENAME_ERROR, "duplicate_filename");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.DUPLICATE_FT_ID_IN_BATCH_ERROR, "duplicate_ft_id");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.BATCH_EMPTY_ERROR, "batch_empty");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.BATCH_TOO_LARGE_ERROR, "batch_too_large");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.ANNOTATIONS_REQUEST_EMPTY_ERROR, "annotations_request_empty");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.ANNOTATIONS_REQUEST_TOO_LARGE_ERROR, "annotations_request_too_large");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.STATUS_NOT_VALID_ERROR, "status_invalid");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.MODIFIED_SINCE_NOT_VALID_ERROR, "modified_since_invalid");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.CURSOR_NOT_VALID_ERROR, "cursor_invalid");
+		VALIDATION_ERROR_TYPES.put(TextminingApiPublicValidator.LIMIT_NOT_VALID_ERROR, "limit_invalid");
+	}
+
+	private final MeterRegistry meterRegistry;
+
+	public TextminingApiPublicMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	public Timer.Sample start() {
+		return Timer.start(meterRegistry);
+	}
+
+	/**
+	 * Records the whole duration of an operation.
+	 * @return the duration in nanoseconds
+	 */
+	public long operation(Timer.Sample sample, String operation, String outcome) {
+		return sample.stop(Timer.builder("textmining.operation")
+				.tag("operation", operation)
+				.tag("outcome", outcome)
+				.publishPercentiles(PERCENTILES)
+				.publishPercentileHistogram()
+				.register(meterRegistry));
+	}
+
+	/**
+	 * Records the duration of a single stage of an operation.
+	 */
+	public void stage(Timer.Sample sample, String operation, String stage, String outcome) {
+		sample.stop(Timer.builder("textmining.operation.stage")
+				.tag("operation", operation)
+				.tag("stage", stage)
+				.tag("outcome", outcome)
+				.publishPercentiles(PERCENTILES)
+				.publishPercentileHistogram()
+				.register(meterRegistry));
+	}
+
+	public void validationErrors(String operation, List<String> errors) {
+		if (errors == null) {
+			return;
+		}
+		for (String error : errors) {
+			meterRegistry.counter("textmining.validation.errors", "operation", operation, "type", validationErrorType(error)).increment();
+		}
+	}
+
+	private static String validationErrorType(String error) {
+		for (Map.Entry<String, String> entry : VALIDATION_ERROR_TYPES.entrySet()) {
+			String template = entry.getKey();
+			int parameter = template.indexOf('%');
+			if (parameter < 0 ? template.equals(error) : error.startsWith(template.substring(0, parameter))) {
+				return entry.getValue();
+			}
+		}
+		return "other";
+	}
+
+	public void filesPerSubmission(String operation, String outcome, int files) {
+		DistributionSummary.builder("textmining.submission.files")
+				.tag("operation", operation)
+				.tag("outcome", outcome)
+				.publishPercentiles(PERCENTILES)
+				.register(meterRegistry)
+				.record(files);
+	}
+
+	public void responseSize(String operation, String outcome, long bytes) {
+		DistributionSummary.builder("textmining.response.size")
+				.baseUnit("bytes")
+				.tag("operation", operation)
+				.tag("outcome", outcome)
+				.publishPercentiles(PERCENTILES)
+				.register(meterRegistry)
+				.record(bytes);
+	}
+}
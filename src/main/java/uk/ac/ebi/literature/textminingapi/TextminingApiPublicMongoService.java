@@ -0,0 +1,478 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SessionCallback;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.ClientSession;
+
+import uk.ac.ebi.literature.textminingapi.pojo.AnnotationsData;
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Mongo operations of the public API not covered by the utility {@link uk.ac.ebi.literature.textminingapi.service.MongoService}.
+ */
+@Component
+public class TextminingApiPublicMongoService {
+
+	private static final Logger logger = LoggerFactory.getLogger(TextminingApiPublicMongoService.class);
+
+	/**
+	 * Number of times a stale pending submission has been re-driven, dropped when the submission is stored again.
+	 */
+	static final String REDRIVES_FIELD = "redrives";
+
+	private final MongoTemplate mongoTemplate;
+
+	public TextminingApiPublicMongoService(MongoTemplate mongoTemplate) {
+		this.mongoTemplate = mongoTemplate;
+	}
+
+	/**
+	 * Creates the unique index of the submissions by user and ft_id, failing the startup without it:
+	 * the conditional upserts rely on it to never create a second document for a submission.
+	 */
+	@PostConstruct
+	public void ensureIndexes() {
+		Index submissionKey = new Index().on("ftId", Direction.ASC).on("user", Direction.ASC).unique();
+		try {
+			mongoTemplate.indexOps(SubmissionMessage.class).ensureIndex(submissionKey);
+		} catch (Exception e) {
+			throw new IllegalStateException("Unique index " + submissionKey.getIndexKeys() + " of the submissions can not be created", e);
+		}
+	}
+
+	static Criteria bySubmission(String ftId, String user) {
+		return Criteria.where("ftId").is(ftId).and("user").is(user);
+	}
+
+	private static Criteria notPending() {
+		return Criteria.where("status").ne(Status.PENDING.getLabel());
+	}
+
+	/**
+	 * Inserts the submission, or replaces the stored one for the same user and ft_id unless it is still pending, in a single atomic operation.
+	 * The _id and the insertion date of a replaced submission are preserved.
+	 * A pending submission does not match the query, so the upsert tries to insert a second one and the unique index created by {@link #ensureIndexes()} refuses it.
+	 * @return the submission stored before, null if there was none
+	 * @throws DuplicateKeyException if the stored submission is pending
+	 */
+	public SubmissionMessage upsertSubmissionUnlessPending(SubmissionMessage submission) {
+		Query query = Query.query(bySubmission(submission.getFtId(), submission.getUser()).andOperator(notPending()));
+		return mongoTemplate.findAndModify(query, upsertUpdate(mongoTemplate.getConverter(), submission), FindAndModifyOptions.options().upsert(true).returnNew(false), SubmissionMessage.class);
+	}
+
+	/**
+	 * Same as {@link #upsertSubmissionUnlessPending(SubmissionMessage)}, storing in the same transaction the messages to publish for its files.
+	 */
+	public SubmissionMessage upsertSubmissionUnlessPending(SubmissionMessage submission, List<OutboxMessage> outboxMessages) {
+		Query query = Query.query(bySubmission(submission.getFtId(), submission.getUser()).andOperator(notPending()));
+		Update update = upsertUpdate(mongoTemplate.getConverter(), submission);
+		return this.executeInTransaction(operations -> {
+			SubmissionMessage previous = operations.findAndModify(query, update, FindAndModifyOptions.options().upsert(true).returnNew(false), SubmissionMessage.class);
+			operations.insertAll(outboxMessages);
+			return previous;
+		});
+	}
+
+	/**
+	 * Sets every field of the submission but the _id and the dates, the insertion date being set only when the document is created.
+	 */
+	private static Update upsertUpdate(MongoConverter converter, SubmissionMessage submission) {
+		Document document = new Document();
+		converter.write(submission, document);
+		document.remove("_id");
+		document.remove("dateInserted");
+		document.remove("dateModified");
+
+		Update update = new Update();
+		document.forEach(update::set);
+		update.unset(REDRIVES_FIELD);
+		Date now = new Date();
+		update.setOnInsert("dateInserted", now);
+		update.set("dateModified", now);
+		return update;
+	}
+
+	/**
+	 * Deletes the submission unless it is still pending, together with its annotations.
+	 * @return the deleted submission, null if nothing was deleted because the submission does not exist or is pending
+	 */
+	public SubmissionMessage deleteSubmissionUnlessPending(String ftId, String user, boolean transactional) {
+		SessionCallback<SubmissionMessage> deletion = operations -> {
+			SubmissionMessage deleted = operations.findAndRemove(Query.query(bySubmission(ftId, user).andOperator(notPending())), SubmissionMessage.class);
+			if (deleted != null) {
+				operations.remove(Query.query(bySubmission(ftId, user)), AnnotationsData.class);
+			}
+			return deleted;
+		};
+		if (transactional) {
+			return this.executeInTransaction(deletion);
+		}
+		return deletion.doInSession(mongoTemplate);
+	}
+
+	/**
+	 * Fields stored for internal purposes only, never returned by the API.
+	 */
+	private static Query withoutInternalFields(Query query) {
+		query.fields().exclude("_id").exclude("user").exclude("dateInserted").exclude("dateModified");
+		return query;
+	}
+
+	public AnnotationsData findAnnotations(String ftId, String user, String filename) {
+		return mongoTemplate.findOne(withoutInternalFields(Query.query(bySubmission(ftId, user).and("filename").is(filename))), AnnotationsData.class);
+	}
+
+	public List<AnnotationsData> findAnnotations(String ftId, String user) {
+		return mongoTemplate.find(withoutInternalFields(Query.query(bySubmission(ftId, user))), AnnotationsData.class);
+	}
+
+	public SubmissionMessage findSubmissionStatus(String ftId, String user) {
+		Query query = withoutInternalFields(Query.query(bySubmission(ftId, user)));
+		query.fields().exclude("files.errorComponent");
+		return mongoTemplate.findOne(query, SubmissionMessage.class);
+	}
+
+	/**
+	 * Same as {@link #findSubmissionStatus(String, String)}, with the modification date loaded as well.
+	 */
+	public SubmissionMessage findSubmissionStatusWithDateModified(String ftId, String user) {
+		return mongoTemplate.findOne(submissionStatusWithDateModifiedQuery(ftId, user), SubmissionMessage.class);
+	}
+
+	private static Query submissionStatusWithDateModifiedQuery(String ftId, String user) {
+		Query query = Query.query(bySubmission(ftId, user));
+		query.fields().exclude("_id").exclude("user").exclude("dateInserted").exclude("files.errorComponent");
+		return query;
+	}
+
+	/**
+	 * Reads a page of the submissions of the user in dateModified and _id order, starting after the given position.
+	 * The files are loaded only if requested, without their error component.
+	 * @param statuses empty for all of them
+	 * @param modifiedSince null for no lower bound on the modification date
+	 * @param afterDateModified null for the first page
+	 */
+	public List<SubmissionMessage> findSubmissions(String user, Collection<String> statuses, Date modifiedSince, Date afterDateModified, String afterId,
+			int limit, boolean includeFiles) {
+		List<Criteria> criteria = new ArrayList<>();
+		criteria.add(Criteria.where("user").is(user));
+		if (!statuses.isEmpty()) {
+			criteria.add(Criteria.where("status").in(statuses));
+		}
+		if (modifiedSince != null) {
+			criteria.add(Criteria.where("dateModified").gte(modifiedSince));
+		}
+		if (afterDateModified != null) {
+			criteria.add(new Criteria().orOperator(Criteria.where("dateModified").gt(afterDateModified),
+					Criteria.where("dateModified").is(afterDateModified).and("_id").gt(afterId)));
+		}
+		Query query = Query.query(new Criteria().andOperator(criteria.toArray(new Criteria[0])))
+				.with(Sort.by(Direction.ASC, "dateModified", "_id")).limit(limit);
+		query.fields().exclude("user").exclude("dateInserted");
+		if (includeFiles) {
+			query.fields().exclude("files.errorComponent");
+		} else {
+			query.fields().exclude("files");
+		}
+		return mongoTemplate.find(query, SubmissionMessage.class);
+	}
+
+	public CloseableIterator<AnnotationsData> streamAnnotations(String ftId, String user) {
+		return mongoTemplate.stream(withoutInternalFields(Query.query(bySubmission(ftId, user))), AnnotationsData.class);
+	}
+
+	/**
+	 * Streams the annotations of several submissions of the user with a single query, sorted by ftId and filename so that they come grouped by submission.
+	 * @param filenamesByFtId the filenames to read for each ftId, an empty set meaning all of them
+	 */
+	public CloseableIterator<AnnotationsData> streamAnnotations(Map<String, Set<String>> filenamesByFtId, String user) {
+		List<String> allFiles = new ArrayList<>();
+		List<Criteria> someFiles = new ArrayList<>();
+		filenamesByFtId.forEach((ftId, filenames) -> {
+			if (filenames.isEmpty()) {
+				allFiles.add(ftId);
+			} else {
+				someFiles.add(Criteria.where("ftId").is(ftId).and("filename").in(filenames));
+			}
+		});
+		if (!allFiles.isEmpty()) {
+			someFiles.add(Criteria.where("ftId").in(allFiles));
+		}
+		Criteria criteria = Criteria.where("user").is(user);
+		if (someFiles.size() == 1) {
+			criteria.andOperator(someFiles.get(0));
+		} else {
+			criteria.orOperator(someFiles.toArray(new Criteria[0]));
+		}
+		Query query = withoutInternalFields(Query.query(criteria)).with(Sort.by(Direction.ASC, "ftId", "filename"));
+		return mongoTemplate.stream(query, AnnotationsData.class);
+	}
+
+	/**
+	 * Reads only the modification date and the status of the submission, answered from the ftId/user/dateModified/status index without loading the document.
+	 * @return null if the submission does not exist
+	 */
+	public SubmissionVersion findSubmissionVersion(String ftId, String user) {
+		Document document = mongoTemplate.findOne(submissionVersionQuery(ftId, user), Document.class, mongoTemplate.getCollectionName(SubmissionMessage.class));
+		if (document == null) {
+			return null;
+		}
+		return toSubmissionVersion(document);
+	}
+
+	private static Query submissionVersionQuery(String ftId, String user) {
+		Query query = Query.query(bySubmission(ftId, user));
+		query.fields().include("dateModified").include("status").exclude("_id");
+		return query;
+	}
+
+	private static SubmissionVersion toSubmissionVersion(Document document) {
+		return new SubmissionVersion(document.get("dateModified"), document.getString("status"));
+	}
+
+	/**
+	 * Reads a page of the submissions pending since before the cutoff, in dateModified and _id order, starting after the given position.
+	 * Only the fields needed to re-drive them are loaded.
+	 * @param afterDateModified null for the first page
+	 */
+	public List<Document> findStalePendingSubmissions(Date cutoff, Object afterDateModified, Object afterId, int limit) {
+		Criteria criteria = Criteria.where("status").is(Status.PENDING.getLabel());
+		if (afterDateModified == null) {
+			criteria.and("dateModified").lt(cutoff);
+		} else {
+			criteria.orOperator(Criteria.where("dateModified").gt(afterDateModified).lt(cutoff),
+					Criteria.where("dateModified").is(afterDateModified).and("_id").gt(afterId));
+		}
+		Query query = Query.query(criteria).with(Sort.by(Direction.ASC, "dateModified", "_id")).limit(limit);
+		query.fields().include("ftId").include("user").include("dateModified").include(REDRIVES_FIELD)
+				.include("files.filename").include("files.url").include("files.status");
+		return mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(SubmissionMessage.class));
+	}
+
+	/**
+	 * Page of the submissions with a callback and a status other than pending, modified after the given position and not after the cutoff,
+	 * in modification date and _id order.
+	 * The statuses are listed rather than excluding pending, so that the status/dateModified/_id index is read in order for each of them.
+	 */
+	public List<SubmissionMessage> findCompletedSubmissionsWithCallback(Date cutoff, Object afterDateModified, Object afterId, int limit) {
+		List<String> completed = Arrays.stream(Status.values()).filter(status -> status != Status.PENDING).map(Status::getLabel).collect(Collectors.toList());
+		Criteria criteria = Criteria.where("status").in(completed).and("callback").nin(null, "");
+		if (afterDateModified == null) {
+			criteria.and("dateModified").lte(cutoff);
+		} else {
+			criteria.orOperator(Criteria.where("dateModified").gt(afterDateModified).lte(cutoff),
+					Criteria.where("dateModified").is(afterDateModified).and("_id").gt(afterId));
+		}
+		Query query = Query.query(criteria).with(Sort.by(Direction.ASC, "dateModified", "_id")).limit(limit);
+		return mongoTemplate.find(query, SubmissionMessage.class);
+	}
+
+	/**
+	 * Takes a stale pending submission for re-driving, touching its modification date so that it is not stale again before the maximum age,
+	 * and in outbox mode stores in the same transaction the messages to publish again.
+	 * @return false if the submission has changed since it was read, in which case nothing is written
+	 */
+	public boolean redriveStalePendingSubmission(Object id, Object dateModified, List<OutboxMessage> outboxMessages) {
+		Query query = Query.query(Criteria.where("_id").is(id).and("status").is(Status.PENDING.getLabel()).and("dateModified").is(dateModified));
+		Update update = new Update().inc(REDRIVES_FIELD, 1).set("dateModified", new Date());
+		if (outboxMessages == null || outboxMessages.isEmpty()) {
+			return mongoTemplate.updateFirst(query, update, SubmissionMessage.class).getModifiedCount() > 0;
+		}
+		return this.executeInTransaction(operations -> {
+			if (operations.updateFirst(query, update, SubmissionMessage.class).getModifiedCount() == 0) {
+				return false;
+			}
+			operations.insertAll(outboxMessages);
+			return true;
+		});
+	}
+
+	/**
+	 * Marks as failed a stale pending submission together with the given files.
+	 * @return false if the submission has changed since it was read, in which case nothing is written
+	 */
+	public boolean failStalePendingSubmission(Object id, Object dateModified, Collection<String> filenames) {
+		Query query = Query.query(Criteria.where("_id").is(id).and("status").is(Status.PENDING.getLabel()).and("dateModified").is(dateModified));
+		Update update = filenames.isEmpty() ? new Update().set("status", Status.FAILED.getLabel()).set("dateModified", new Date())
+				: filesStatusUpdate(filenames, Status.FAILED.getLabel(), true);
+		return mongoTemplate.updateFirst(query, update, SubmissionMessage.class).getModifiedCount() > 0;
+	}
+
+	public boolean existsOutboxMessages(String ftId, String user) {
+		return mongoTemplate.exists(Query.query(Criteria.where("message.ftId").is(ftId).and("message.user").is(user)), OutboxMessage.class);
+	}
+
+	public boolean isSubmissionCompleted(String ftId, String user) {
+		return mongoTemplate.exists(Query.query(bySubmission(ftId, user).andOperator(notPending())), SubmissionMessage.class);
+	}
+
+	public boolean existsSubmission(String ftId, String user) {
+		return mongoTemplate.exists(Query.query(bySubmission(ftId, user)), SubmissionMessage.class);
+	}
+
+	private <T> T executeInTransaction(SessionCallback<T> callback) {
+		try (ClientSession session = mongoTemplate.getMongoDatabaseFactory().getSession(ClientSessionOptions.builder().causallyConsistent(true).build())) {
+			session.startTransaction();
+			try {
+				T ret = callback.doInSession(mongoTemplate.withSession(session));
+				session.commitTransaction();
+				return ret;
+			} catch (RuntimeException e) {
+				session.abortTransaction();
+				throw e;
+			}
+		}
+	}
+
+	public Map<String, SubmissionMessage> findSubmissions(Collection<String> ftIds, String user) {
+		Map<String, SubmissionMessage> ret = new HashMap<>();
+		if (ftIds.isEmpty()) {
+			return ret;
+		}
+		Query query = Query.query(Criteria.where("ftId").in(ftIds).and("user").is(user));
+		for (SubmissionMessage submission : mongoTemplate.find(query, SubmissionMessage.class)) {
+			ret.put(submission.getFtId(), submission);
+		}
+		return ret;
+	}
+
+	/**
+	 * Writes all the submissions with a single unordered bulk operation of conditional upserts, the same as {@link #upsertSubmissionUnlessPending(SubmissionMessage)}:
+	 * a submission whose stored one is still pending fails with a duplicate key error, reported in pending.
+	 * @param pending filled with the positions in the list of the submissions not written because the stored one is pending
+	 * @return the positions in the list of the submissions that could not be written, pending ones included
+	 */
+	public Set<Integer> storeSubmissions(List<SubmissionMessage> submissions, Set<Integer> pending) {
+		Set<Integer> failed = new HashSet<>();
+		if (submissions.isEmpty()) {
+			return failed;
+		}
+		BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkMode.UNORDERED, SubmissionMessage.class);
+		for (SubmissionMessage submission : submissions) {
+			bulkOperations.upsert(Query.query(bySubmission(submission.getFtId(), submission.getUser()).andOperator(notPending())),
+					upsertUpdate(mongoTemplate.getConverter(), submission));
+		}
+		try {
+			bulkOperations.execute();
+		} catch (BulkOperationException e) {
+			for (BulkWriteError error : e.getErrors()) {
+				failed.add(error.getIndex());
+				if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+					pending.add(error.getIndex());
+				}
+			}
+			logger.error("Problems in bulk saving {} out of {} submissions in mongoDb, {} of them pending", failed.size(), submissions.size(), pending.size());
+		} catch (Exception e) {
+			for (int i = 0; i < submissions.size(); i++) {
+				failed.add(i);
+			}
+			logger.error("Problems in bulk saving {} submissions in mongoDb", submissions.size(), e);
+		}
+		return failed;
+	}
+
+	/**
+	 * Same as {@link #storeSubmissions(List, Set)}, storing in the same transaction the messages to publish for the files of the written submissions.
+	 * A write error aborts the whole transaction, so the submissions found pending are left out and the others are written again,
+	 * at most once for each submission that becomes pending in the meantime.
+	 * @param outboxMessages messages of each submission, at the same position in the list
+	 */
+	public Set<Integer> storeSubmissions(List<SubmissionMessage> submissions, List<List<OutboxMessage>> outboxMessages, Set<Integer> pending) {
+		Set<Integer> failed = new HashSet<>();
+		List<Integer> positions = new ArrayList<>(submissions.size());
+		for (int i = 0; i < submissions.size(); i++) {
+			positions.add(i);
+		}
+		while (!positions.isEmpty()) {
+			List<Integer> attempt = positions;
+			try {
+				this.executeInTransaction(operations -> {
+					BulkOperations bulkOperations = operations.bulkOps(BulkMode.UNORDERED, SubmissionMessage.class);
+					List<OutboxMessage> messages = new ArrayList<>();
+					for (int position : attempt) {
+						SubmissionMessage submission = submissions.get(position);
+						bulkOperations.upsert(Query.query(bySubmission(submission.getFtId(), submission.getUser()).andOperator(notPending())),
+								upsertUpdate(mongoTemplate.getConverter(), submission));
+						messages.addAll(outboxMessages.get(position));
+					}
+					bulkOperations.execute();
+					operations.insertAll(messages);
+					return null;
+				});
+				return failed;
+			} catch (BulkOperationException e) {
+				if (e.getErrors().isEmpty()) {
+					failed.addAll(attempt);
+					logger.error("Problems in bulk saving {} submissions with their outbox messages in mongoDb", attempt.size(), e);
+					return failed;
+				}
+				positions = new ArrayList<>(attempt);
+				for (BulkWriteError error : e.getErrors()) {
+					int position = attempt.get(error.getIndex());
+					if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+						failed.addAll(attempt);
+						logger.error("Problems in bulk saving {} submissions with their outbox messages in mongoDb", attempt.size(), e);
+						return failed;
+					}
+					failed.add(position);
+					pending.add(position);
+					positions.remove(Integer.valueOf(position));
+				}
+				logger.warn("{} out of {} submissions pending, saving the others again", e.getErrors().size(), attempt.size());
+			} catch (Exception e) {
+				failed.addAll(attempt);
+				logger.error("Problems in bulk saving {} submissions with their outbox messages in mongoDb", attempt.size(), e);
+				return failed;
+			}
+		}
+		return failed;
+	}
+
+	public void updateFilesStatus(String ftId, String user, Collection<String> filenames, String status, boolean updateSubmissionStatus) {
+		mongoTemplate.updateFirst(Query.query(bySubmission(ftId, user)), filesStatusUpdate(filenames, status, updateSubmissionStatus), SubmissionMessage.class);
+	}
+
+	private static Update filesStatusUpdate(Collection<String> filenames, String status, boolean updateSubmissionStatus) {
+		Update update = new Update().set("files.$[file].status", status).filterArray(Criteria.where("file.filename").in(filenames));
+		if (updateSubmissionStatus) {
+			update.set("status", status);
+		}
+		update.set("dateModified", new Date());
+		return update;
+	}
+}
@@ -3,23 +3,49 @@ package uk.ac.ebi.literature.textminingapi;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.util.CloseableIterator;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.micrometer.core.instrument.Timer;
 
 import uk.ac.ebi.literature.textminingapi.pojo.AnnotationsData;
 import uk.ac.ebi.literature.textminingapi.pojo.FileInfo;
 import uk.ac.ebi.literature.textminingapi.pojo.MLTextObject;
 import uk.ac.ebi.literature.textminingapi.pojo.Status;
 import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
-import uk.ac.ebi.literature.textminingapi.service.MLQueueSenderService;
-import uk.ac.ebi.literature.textminingapi.service.MongoService;
 import uk.ac.ebi.literature.textminingapi.utility.Utility;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 @Component
 public class TextminingApiPublicService {
@@ -27,27 +53,65 @@ public class TextminingApiPublicService {
 	protected static final String INTERNAL_DELETION_ERRER="Internal errors prevented submission to be deleted successfully";
 	protected static final String DB_ERROR_MSG="Network errors prevented messages to be stored successfully";
 	protected static final String NETWORK_ERROR_MSG="Network errors prevented messages to be processed successfully";
+	protected static final String FILES_NOT_QUEUED_MSG="Files %s could not be queued for processing and have been marked as failed";
+	private static final String SUBMIT_OPERATION="submit";
+	private static final String BATCH_SUBMIT_OPERATION="submitBatch";
+	private static final String DELETE_OPERATION="delete";
+	private static final String GET_ANNOTATIONS_OPERATION="getAnnotations";
+	private static final String GET_ALL_ANNOTATIONS_OPERATION="getAllAnnotations";
+	private static final String STREAM_ANNOTATIONS_OPERATION="streamAnnotations";
+	private static final String MULTI_GET_ANNOTATIONS_OPERATION="multiGetAnnotations";
+	private static final String GET_SUBMISSION_STATUS_OPERATION="getSubmissionStatus";
+	private static final String LIST_SUBMISSIONS_OPERATION="listSubmissions";
 	private static Logger logger = LoggerFactory.getLogger(TextminingApiPublicService.class);
 
-	private final MLQueueSenderService queueSenderService;
-
-	private final MongoService mongoService;
-
-	@Value("${rabbitmq.tmExchange}")
-	private String PUBLISH_EXCHANGE;
-
-	@Value("${rabbitmq.submissionsQueue}")
-	private String SUBMISSIONS_QUEUE;
+	private final SubmissionQueuePublisher submissionQueuePublisher;
     
 	private final TextminingApiPublicValidator validator;
 	
+	private final TextminingApiPublicMongoService publicMongoService;
+	
+	private final ObjectMapper objectMapper;
+	
+	private final AnnotationsCache annotationsCache;
+	
+	private final SubmissionWatchService submissionWatchService;
+	
+	private final SubmissionAdmissionService submissionAdmissionService;
+	
+	private final TextminingApiPublicMetrics metrics;
+	
 	@Value("${mongo.transaction}")
 	private boolean transactionMongo;
 
-	public TextminingApiPublicService(MLQueueSenderService queueSenderService, MongoService mongoService, TextminingApiPublicValidator validator) {
-		this.queueSenderService = queueSenderService;
-		this.mongoService = mongoService;
+	@Value("${submission.batch.maxSize}")
+	private int maxBatchSize;
+
+	@Value("${outbox.enable}")
+	private boolean outboxEnabled;
+
+	@Value("${submission.list.maxLimit}")
+	private int maxListLimit;
+
+	@Value("${annotations.multiGet.maxFtIds}")
+	private int multiGetMaxFtIds;
+
+	@Value("${annotations.multiGet.chunkSize}")
+	private int multiGetChunkSize;
+
+	public TextminingApiPublicService(SubmissionQueuePublisher submissionQueuePublisher, TextminingApiPublicValidator validator, TextminingApiPublicMongoService publicMongoService, ObjectMapper objectMapper, AnnotationsCache annotationsCache, SubmissionWatchService submissionWatchService, SubmissionAdmissionService submissionAdmissionService, TextminingApiPublicMetrics metrics) {
+		this.submissionQueuePublisher = submissionQueuePublisher;
 		this.validator = validator;
+		this.publicMongoService = publicMongoService;
+		this.objectMapper = objectMapper;
+		this.annotationsCache = annotationsCache;
+		this.submissionWatchService = submissionWatchService;
+		this.submissionAdmissionService = submissionAdmissionService;
+		this.metrics = metrics;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
 	}
 
 	protected String getUsername() {
@@ -65,79 +129,264 @@ public class TextminingApiPublicService {
 		}
 	}
 	
-	public boolean processSubmission(SubmissionMessage inputData, AtomicReference<List<String>> errorsOutput) {
+	/**
+	 * @return 0 when the submissions can be processed, otherwise the seconds after which the client may retry
+	 */
+	public long admitSubmissions(List<SubmissionMessage> inputData, AtomicReference<List<String>> errorsOutput) {
+		int files = 0;
+		if (inputData != null) {
+			for (SubmissionMessage submission : inputData) {
+				if (submission != null && submission.getFiles() != null) {
+					files += submission.getFiles().length;
+				}
+			}
+		}
+		String user = this.getUsername();
+		AtomicReference<String> admissionError = new AtomicReference<>();
+		long retryAfter = submissionAdmissionService.admit(user, files, admissionError);
+		if (retryAfter > 0) {
+			logger.warn("Submission of {} files for user {} refused: {}", files, user, admissionError.get());
+			List<String> errorMessages = new ArrayList<>();
+			errorMessages.add(admissionError.get());
+			errorsOutput.set(errorMessages);
+		}
+		return retryAfter;
+	}
+	
+	public boolean processSubmission(SubmissionMessage inputData, boolean failFast, AtomicReference<List<String>> errorsOutput) {
 		// populate default fields before validating and to insert eventually in mongoDb
 		populateData(inputData);
-		logger.info("Received post submission: {}", inputData);
+		// the whole payload only at debug level, large submissions would otherwise dominate the log
+		logger.debug("Received post submission: {}", inputData);
 		List<String> errorMessages = new ArrayList<>();
 		boolean success = true;
-		AtomicReference<SubmissionMessage> previousSubmission = new AtomicReference<SubmissionMessage> ();
-		boolean valid= validator.validateSubmission(inputData, errorsOutput, previousSubmission);
+		Timer.Sample total = metrics.start();
+		Timer.Sample stage = metrics.start();
+		// the check against a pending submission is part of the conditional write
+		boolean valid= validator.validateSubmission(inputData, null, failFast, errorsOutput);
+		metrics.stage(stage, SUBMIT_OPERATION, "validate", valid ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.INVALID);
 		if (!valid) {
-			String errorMsg="Submission Message was rejected as invalid";
-			if (!Utility.isEmpty(errorsOutput.get())) {
-				errorMsg = errorMsg + ": "+ String.join("\n", errorsOutput.get());
-			}
-			logger.error(errorMsg);
+			metrics.validationErrors(SUBMIT_OPERATION, errorsOutput.get());
+			logger.error("Submission Message was rejected as invalid for ftId {} and user {}: {}", inputData.getFtId(), inputData.getUser(), errorsOutput.get());
 		    success = false;
 		    errorMessages.addAll(errorsOutput.get());      
 		}else {
 			
-			//inserting into Mongo
-			boolean storingMongo = this.insertSubmissionIntoMongo(inputData, previousSubmission.get());
+			// one message for each file
+			List<MLTextObject> messages = new ArrayList<>(inputData.getFiles().length);
+			for (FileInfo file : inputData.getFiles()) {
+				messages.add(this.buildMessage(inputData, file));
+			}
+			
+			//inserting into Mongo, in outbox mode together with the messages that the relay publishes afterwards
+			AtomicReference<String> storingError = new AtomicReference<>();
+			stage = metrics.start();
+			boolean storingMongo = this.insertSubmissionIntoMongo(inputData, outboxEnabled ? messages : null, storingError);
+			metrics.stage(stage, SUBMIT_OPERATION, "store", storingMongo ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.FAILURE);
 			
-			if (storingMongo) {
-				//inserting messages in RabbitMq (one for each file)
-				boolean sendingMessage = true;
-				for (FileInfo file : inputData.getFiles()) {
-					MLTextObject message = new MLTextObject();
-					message.setUser(inputData.getUser());
-					message.setFtId(inputData.getFtId());
-					message.setStatus(file.getStatus());
-					message.setFilename(file.getFilename());
-					message.setUrl(file.getUrl());
-					sendingMessage = queueSenderService.sendMessageToQueue(SUBMISSIONS_QUEUE, message, PUBLISH_EXCHANGE);
-					 if (!sendingMessage) {
-				        success = false;
-				        errorMessages.add(NETWORK_ERROR_MSG);
-				        logger.error("Error in storing message to submission queue {}", message);
-				        break;
-					}
+			if (storingMongo && !outboxEnabled) {
+				//inserting messages in RabbitMq
+				stage = metrics.start();
+				List<MLTextObject> failedMessages = submissionQueuePublisher.publish(messages);
+				metrics.stage(stage, SUBMIT_OPERATION, "publish", failedMessages.isEmpty() ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.FAILURE);
+				if (!failedMessages.isEmpty()) {
+					success = false;
+					errorMessages.add(NETWORK_ERROR_MSG);
+					errorMessages.add(this.markFilesFailed(inputData, failedMessages));
 				}
-			}else {
+			}else if (!storingMongo) {
 				success = false;
-		        errorMessages.add(DB_ERROR_MSG);
+		        errorMessages.add(storingError.get());
 			}
 			
 		}
 		
+		String outcome = success ? TextminingApiPublicMetrics.SUCCESS : valid ? TextminingApiPublicMetrics.FAILURE : TextminingApiPublicMetrics.INVALID;
+		long durationMs = TimeUnit.NANOSECONDS.toMillis(metrics.operation(total, SUBMIT_OPERATION, outcome));
+		int files = inputData.getFiles() != null ? inputData.getFiles().length : 0;
+		metrics.filesPerSubmission(SUBMIT_OPERATION, outcome, files);
 		if (success) {
-        	logger.info("Processed post submission with success: {}", inputData);
+        	logger.info("Processed post submission with success: ftId={} user={} files={} outcome={} durationMs={}", inputData.getFtId(), inputData.getUser(), files, outcome, durationMs);
         }else {
-        	logger.error("Processed post submission with failure: {}", inputData);
+        	logger.error("Processed post submission with failure: ftId={} user={} files={} outcome={} durationMs={}", inputData.getFtId(), inputData.getUser(), files, outcome, durationMs);
         }
 		
 		errorsOutput.set(errorMessages);
 		return success;
    }
    
-   protected boolean insertSubmissionIntoMongo(SubmissionMessage inputData, SubmissionMessage existingData) {
+   protected MLTextObject buildMessage(SubmissionMessage inputData, FileInfo file) {
+	   MLTextObject message = new MLTextObject();
+	   message.setUser(inputData.getUser());
+	   message.setFtId(inputData.getFtId());
+	   message.setStatus(file.getStatus());
+	   message.setFilename(file.getFilename());
+	   message.setUrl(file.getUrl());
+	   return message;
+   }
+   
+   public List<BatchSubmissionResult> processBatchSubmission(List<SubmissionMessage> inputData, boolean failFast, AtomicReference<List<String>> errorsOutput) {
+	   List<String> errorMessages = new ArrayList<>();
+	   if (inputData == null || inputData.isEmpty()) {
+		   errorMessages.add(TextminingApiPublicValidator.BATCH_EMPTY_ERROR);
+	   } else if (inputData.size() > maxBatchSize) {
+		   errorMessages.add(String.format(TextminingApiPublicValidator.BATCH_TOO_LARGE_ERROR, maxBatchSize));
+	   }
+	   if (!errorMessages.isEmpty()) {
+		   metrics.validationErrors(BATCH_SUBMIT_OPERATION, errorMessages);
+		   logger.error("Batch submission was rejected as invalid: {}", String.join("\n", errorMessages));
+		   errorsOutput.set(errorMessages);
+		   return null;
+	   }
+	   
+	   String user = this.getUsername();
+	   logger.info("Received batch submission of {} submissions for user {}", inputData.size(), user);
+	   
+	   Set<String> ftIds = new LinkedHashSet<>();
+	   for (SubmissionMessage submission : inputData) {
+		   if (submission != null) {
+			   populateData(submission);
+			   if (!Utility.isEmpty(submission.getFtId())) {
+				   ftIds.add(submission.getFtId());
+			   }
+		   }
+	   }
+	   
+	   Timer.Sample total = metrics.start();
+	   // one query for all the submissions already stored for this user
+	   Timer.Sample stage = metrics.start();
+	   Map<String, SubmissionMessage> existingSubmissions = publicMongoService.findSubmissions(ftIds, user);
+	   metrics.stage(stage, BATCH_SUBMIT_OPERATION, "lookup", TextminingApiPublicMetrics.SUCCESS);
+	   
+	   stage = metrics.start();
+	   
+	   List<BatchSubmissionResult> results = new ArrayList<>(inputData.size());
+	   List<SubmissionMessage> toStore = new ArrayList<>(inputData.size());
+	   List<BatchSubmissionResult> toStoreResults = new ArrayList<>(inputData.size());
+	   Set<String> seenFtIds = new HashSet<>();
+	   for (SubmissionMessage submission : inputData) {
+		   String ftId = submission != null ? submission.getFtId() : null;
+		   BatchSubmissionResult result = new BatchSubmissionResult(ftId);
+		   results.add(result);
+		   
+		   if (!Utility.isEmpty(ftId) && !seenFtIds.add(ftId)) {
+			   result.fail(String.format(TextminingApiPublicValidator.DUPLICATE_FT_ID_IN_BATCH_ERROR, ftId));
+			   metrics.validationErrors(BATCH_SUBMIT_OPERATION, result.getErrors());
+			   continue;
+		   }
+		   
+		   SubmissionMessage existingSubmission = existingSubmissions.get(ftId);
+		   AtomicReference<List<String>> validationErrors = new AtomicReference<>();
+		   if (!validator.validateSubmission(submission, existingSubmission, failFast, validationErrors)) {
+			   result.fail(validationErrors.get());
+			   metrics.validationErrors(BATCH_SUBMIT_OPERATION, validationErrors.get());
+			   continue;
+		   }
+		   
+		   toStore.add(submission);
+		   toStoreResults.add(result);
+	   }
+	   
+	   metrics.stage(stage, BATCH_SUBMIT_OPERATION, "validate", toStore.size() == inputData.size() ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.INVALID);
+	   
+	   // one message for each file of the valid submissions
+	   List<List<MLTextObject>> messages = new ArrayList<>(toStore.size());
+	   for (SubmissionMessage submission : toStore) {
+		   List<MLTextObject> submissionMessages = new ArrayList<>(submission.getFiles().length);
+		   for (FileInfo file : submission.getFiles()) {
+			   submissionMessages.add(this.buildMessage(submission, file));
+		   }
+		   messages.add(submissionMessages);
+	   }
+	   
+	   // one bulk write for all the valid submissions, in outbox mode in the same transaction as their messages that the relay publishes afterwards
+	   stage = metrics.start();
+	   // conditional upserts: a submission that became pending since the lookup is not overwritten
+	   Set<Integer> pendingStoring = new HashSet<>();
+	   Set<Integer> failedStoring = !outboxEnabled ? publicMongoService.storeSubmissions(toStore, pendingStoring)
+			   : publicMongoService.storeSubmissions(toStore, messages.stream()
+					   .map(submissionMessages -> submissionMessages.stream().map(OutboxMessage::new).collect(Collectors.toList())).collect(Collectors.toList()), pendingStoring);
+	   metrics.stage(stage, BATCH_SUBMIT_OPERATION, "store", failedStoring.isEmpty() ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.FAILURE);
+	   
+	   // one publishing pass for the files of all the stored submissions
+	   List<MLTextObject> toPublish = new ArrayList<>();
+	   for (int i = 0; i < toStore.size(); i++) {
+		   if (failedStoring.contains(i)) {
+			   toStoreResults.get(i).fail(pendingStoring.contains(i) ? TextminingApiPublicValidator.SUBMISSION_ALREADY_EXISTING_ERROR : DB_ERROR_MSG);
+		   } else {
+			   toPublish.addAll(messages.get(i));
+		   }
+	   }
+	   if (!outboxEnabled) {
+		   stage = metrics.start();
+		   List<MLTextObject> failedMessages = submissionQueuePublisher.publish(toPublish);
+		   metrics.stage(stage, BATCH_SUBMIT_OPERATION, "publish", failedMessages.isEmpty() ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.FAILURE);
+		   
+		   if (!failedMessages.isEmpty()) {
+			   Map<String, List<MLTextObject>> failedMessagesByFtId = failedMessages.stream().collect(Collectors.groupingBy(MLTextObject::getFtId));
+			   for (int i = 0; i < toStore.size(); i++) {
+				   SubmissionMessage submission = toStore.get(i);
+				   List<MLTextObject> failedSubmissionMessages = failedMessagesByFtId.get(submission.getFtId());
+				   if (failedSubmissionMessages != null) {
+					   toStoreResults.get(i).fail(NETWORK_ERROR_MSG);
+					   toStoreResults.get(i).fail(this.markFilesFailed(submission, failedSubmissionMessages));
+				   }
+			   }
+		   }
+	   }
+	   
+	   long failures = results.stream().filter(result -> !result.isSuccess()).count();
+	   logger.info("Processed batch submission of {} submissions for user {} with {} failures", inputData.size(), user, failures);
+	   metrics.operation(total, BATCH_SUBMIT_OPERATION, failures == 0 ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.FAILURE);
+	   for (SubmissionMessage submission : toStore) {
+		   metrics.filesPerSubmission(BATCH_SUBMIT_OPERATION, TextminingApiPublicMetrics.SUCCESS, submission.getFiles().length);
+	   }
+	   
+	   errorsOutput.set(errorMessages);
+	   return results;
+   }
+   
+   /**
+    * Marks as failed the files whose message could not be queued, so that they are not left pending forever.
+    * The submission itself is marked as failed only when none of its files could be queued.
+    * @return the error message for the client
+    */
+   protected String markFilesFailed(SubmissionMessage inputData, List<MLTextObject> failedMessages) {
+	   Set<String> failedFilenames = failedMessages.stream().map(MLTextObject::getFilename).collect(Collectors.toSet());
+	   boolean allFailed = failedFilenames.size() == inputData.getFiles().length;
+	   for (FileInfo file : inputData.getFiles()) {
+		   if (failedFilenames.contains(file.getFilename())) {
+			   file.setStatus(Status.FAILED.getLabel());
+		   }
+	   }
+	   if (allFailed) {
+		   inputData.setStatus(Status.FAILED.getLabel());
+	   }
+	   try {
+		   publicMongoService.updateFilesStatus(inputData.getFtId(), inputData.getUser(), failedFilenames, Status.FAILED.getLabel(), allFailed);
+	   } catch (Exception e) {
+		   logger.error("Problems in marking as failed files {} of submission for ftId {} and user {}", failedFilenames, inputData.getFtId(), inputData.getUser(), e);
+	   }
+	   return String.format(FILES_NOT_QUEUED_MSG, String.join(", ", failedFilenames));
+   }
+   
+   /**
+    * @param outboxMessages messages to store in the outbox in the same transaction, null to store only the submission
+    */
+   protected boolean insertSubmissionIntoMongo(SubmissionMessage inputData, List<MLTextObject> outboxMessages, AtomicReference<String> errorMessage) {
        boolean ret = true;
-       if (existingData != null) {
-           // preserve the existing information
-    	   inputData.set_id(existingData.get_id());
-    	   inputData.setDateInserted(existingData.getDateInserted());
-       }
        try {
-    	   if (this.transactionMongo) {
-    		   mongoService.storeSubmission(inputData);
-    	   }else {
-    		   mongoService.storeSubmissionNoTransactional(inputData);
-    	   }
-    	   
-    	   logger.info((existingData != null ? "Updated" : "Inserted new") + " submission to DB: {}" , inputData.toString());
+    	   SubmissionMessage existingData = outboxMessages == null ? publicMongoService.upsertSubmissionUnlessPending(inputData)
+    			   : publicMongoService.upsertSubmissionUnlessPending(inputData, outboxMessages.stream().map(OutboxMessage::new).collect(Collectors.toList()));
+    	   logger.debug("{} submission to DB: {}", existingData != null ? "Updated" : "Inserted new", inputData);
+       }catch(DuplicateKeyException e) {
+    	   // the only stored submission for this user and ft_id is still pending
+    	   logger.error("Submission already pending in mongoDb for ftId {} and user {}", inputData.getFtId(), inputData.getUser());
+    	   errorMessage.set(TextminingApiPublicValidator.SUBMISSION_ALREADY_EXISTING_ERROR);
+    	   ret = false;
        }catch(Exception e) {
-    	   logger.error("Problems in saving submission in mongoDb "+inputData.toString(), e);
+    	   logger.error("Problems in saving submission in mongoDb for ftId {} and user {}", inputData.getFtId(), inputData.getUser(), e);
+    	   errorMessage.set(DB_ERROR_MSG);
     	   ret = false;
        }
        
@@ -148,53 +397,60 @@ public class TextminingApiPublicService {
    public boolean processDeletion(String ftId, AtomicReference<List<String>> errorsOutput, AtomicReference<HttpStatus> httpStatus) {
 		
 	   	String user = this.getUsername();
-	   	logger.info("Received delete submission: for ftId {} and user {}", ftId, user);
+	   	logger.debug("Received delete submission: for ftId {} and user {}", ftId, user);
 		List<String> errorMessages = new ArrayList<>();
 		boolean success = true;
-		boolean valid= validator.validateDeletion(ftId, user, errorsOutput);
+		Timer.Sample total = metrics.start();
+		boolean valid= validator.validateDeletion(ftId, errorsOutput);
 		if (!valid) {
-			String errorMsg="Deletion request was rejected as invalid";
-			if (!Utility.isEmpty(errorsOutput.get())) {
-				errorMsg = errorMsg + ": "+ String.join("\n", errorsOutput.get());
-			}
-			logger.error(errorMsg);
+			metrics.validationErrors(DELETE_OPERATION, errorsOutput.get());
+			logger.error("Deletion request was rejected as invalid for user {}: {}", user, errorsOutput.get());
 		    success = false;
 		    errorMessages.addAll(errorsOutput.get());  
 		    httpStatus.set(HttpStatus.BAD_REQUEST);
 		}else {
 
-			boolean deletingFromMongo = this.deleteSubmissionFromMongo(ftId, user);
-			
-			if (!deletingFromMongo) {
-				success = false;
-		        errorMessages.add(INTERNAL_DELETION_ERRER);
-		        httpStatus.set(HttpStatus.INTERNAL_SERVER_ERROR);
-			}
+			Timer.Sample stage = metrics.start();
+			success = this.deleteSubmissionFromMongo(ftId, user, errorMessages, httpStatus);
+			metrics.stage(stage, DELETE_OPERATION, "delete", success ? TextminingApiPublicMetrics.SUCCESS : httpStatus.get() == HttpStatus.BAD_REQUEST ? TextminingApiPublicMetrics.INVALID : TextminingApiPublicMetrics.FAILURE);
 			
 		}
 		
+		String outcome = success ? TextminingApiPublicMetrics.SUCCESS : httpStatus.get() == HttpStatus.BAD_REQUEST ? TextminingApiPublicMetrics.INVALID : TextminingApiPublicMetrics.FAILURE;
+		long durationMs = TimeUnit.NANOSECONDS.toMillis(metrics.operation(total, DELETE_OPERATION, outcome));
 		if (success) {
 			httpStatus.set(HttpStatus.OK);
-			logger.info("Submission deleted successfully for ftId "+ftId+ " and user "+user);
+			logger.info("Processed delete submission with success: ftId={} user={} outcome={} durationMs={}", ftId, user, outcome, durationMs);
 		}else {
-			logger.error("Problems in deleting submission for ftId "+ftId+ " and user "+user);
+			logger.error("Processed delete submission with failure: ftId={} user={} outcome={} durationMs={}", ftId, user, outcome, durationMs);
 		}
 		errorsOutput.set(errorMessages);
 		return success;
   }
 
-	protected boolean deleteSubmissionFromMongo(String ftId, String user) {
+	protected boolean deleteSubmissionFromMongo(String ftId, String user, List<String> errorMessages, AtomicReference<HttpStatus> httpStatus) {
 		boolean ret = true;
 	    
 	    try {
-	    	if (this.transactionMongo) {
-	    		mongoService.deleteSubmission(ftId, user);
+	    	SubmissionMessage deletedSubmission = publicMongoService.deleteSubmissionUnlessPending(ftId, user, this.transactionMongo);
+	    	if (deletedSubmission != null) {
+	    		logger.debug("Submission deleted successfully from mongoDB for ftId {} and user {}", ftId, user);
 	    	}else {
-	    		mongoService.deleteSubmissionNoTransactional(ftId, user);
+	    		// nothing deleted, only now it is worth finding out why
+	    		ret = false;
+	    		httpStatus.set(HttpStatus.BAD_REQUEST);
+	    		if (publicMongoService.existsSubmission(ftId, user)) {
+	    			errorMessages.add(String.format(TextminingApiPublicValidator.SUBMISSION_PENDING_ERROR_DELETION, ftId));
+	    		}else {
+	    			errorMessages.add(String.format(TextminingApiPublicValidator.SUBMISSION_NOT_FOUND_ERROR, ftId));
+	    		}
+	    		metrics.validationErrors(DELETE_OPERATION, errorMessages);
+	    		logger.error("Deletion request was rejected as invalid: {}", errorMessages.get(0));
 	    	}
-	 	   logger.info("Submission deleted successfully from mongoDB for ftId "+ftId+ " and user "+user);
 	    }catch(Exception e) {
-	 	   logger.error("Problems in deleting submission from mongoDb for ftId "+ftId+ " and user "+user, e);
+	 	   logger.error("Problems in deleting submission from mongoDb for ftId {} and user {}", ftId, user, e);
+	 	   errorMessages.add(INTERNAL_DELETION_ERRER);
+	 	   httpStatus.set(HttpStatus.INTERNAL_SERVER_ERROR);
 	 	   ret = false;
 	    }
 	    
@@ -204,60 +460,443 @@ public class TextminingApiPublicService {
 	public AnnotationsData getAnnotationsData(String ftId, String filename) {
 		String user = this.getUsername();
 	   	logger.info("Received getAnnotationsData request for ftId {} and user {} and filename {}", ftId, user, filename);
-	   	AnnotationsData ret = this.mongoService.findAnnotations(ftId, user, filename);
+	   	//irrelevant information not required in API response is not fetched at all
+	   	AnnotationsData ret = this.publicMongoService.findAnnotations(ftId, user, filename);
 	   	if (ret == null) {
 	   		logger.error("No annotations data retrieved for request for ftId {} and user {} and filename {}", ftId, user, filename);
 	   	}else {
 	   		logger.info("Retrieved successfully annotations data for request for ftId {} and user {} and filename {}", ftId, user, filename);
-	   	    //irrelevant information  not required in API response sat to null
-	   		ret.setUser(null);
-	   		ret.set_id(null);
-	   		ret.setDateInserted(null);
-	   		ret.setDateModified(null);
 	   	}
 	   	
 	   	return ret;
 	}
 	
+	/**
+	 * Same as {@link #getAnnotationsData(String, String)}, already serialised as JSON.
+	 * Annotations of submissions in a final status are served from {@link AnnotationsCache}, keyed by the version of the submission read before the annotations:
+	 * if a resubmission happens in between, the bytes are cached under the previous version, which is never looked up again.
+	 * @param version as returned by {@link #getSubmissionVersion(String)}, null to bypass the cache
+	 */
+	public byte[] getAnnotationsDataJson(String ftId, String filename, SubmissionVersion version) throws JsonProcessingException {
+		String user = this.getUsername();
+		Timer.Sample total = metrics.start();
+		byte[] ret = version != null && version.isCompleted() ? annotationsCache.get(user, ftId, version.getVersion(), filename) : null;
+		if (ret != null) {
+			logger.info("Retrieved annotations data from cache for request for ftId {} and user {} and filename {}", ftId, user, filename);
+			metrics.operation(total, GET_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.CACHED);
+			metrics.responseSize(GET_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.CACHED, ret.length);
+			return ret;
+		}
+		
+		Timer.Sample stage = metrics.start();
+		AnnotationsData annotationsData = this.getAnnotationsData(ftId, filename);
+		metrics.stage(stage, GET_ANNOTATIONS_OPERATION, "find", annotationsData != null ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.NOT_FOUND);
+		if (annotationsData == null) {
+			metrics.operation(total, GET_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.NOT_FOUND);
+			return null;
+		}
+		stage = metrics.start();
+		ret = objectMapper.writeValueAsBytes(annotationsData);
+		metrics.stage(stage, GET_ANNOTATIONS_OPERATION, "serialise", TextminingApiPublicMetrics.SUCCESS);
+		if (version != null && version.isCompleted() && annotationsCache.isEnabled()) {
+			annotationsCache.put(user, ftId, version.getVersion(), filename, ret);
+		}
+		metrics.operation(total, GET_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.SUCCESS);
+		metrics.responseSize(GET_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.SUCCESS, ret.length);
+		return ret;
+	}
+	
+	/**
+	 * Streams the annotations of all the files of the submission straight from the Mongo cursor to the response,
+	 * as a JSON array or as NDJSON, so that memory usage does not depend on the number of files.
+	 * @return null if there are no annotations for the submission
+	 */
+	public StreamingResponseBody streamAnnotationsData(String ftId, boolean ndjson) {
+		String user = this.getUsername();
+	   	logger.info("Received streamAnnotationsData request for ftId {} and user {}", ftId, user);
+	   	Timer.Sample total = metrics.start();
+	   	CloseableIterator<AnnotationsData> iterator = this.publicMongoService.streamAnnotations(ftId, user);
+	   	if (!iterator.hasNext()) {
+	   		iterator.close();
+	   		logger.error("No annotations data retrieved for request for ftId {} and user {}", ftId, user);
+	   		metrics.operation(total, STREAM_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.NOT_FOUND);
+	   		return null;
+	   	}
+	   	
+	   	ObjectWriter writer = objectMapper.writerFor(AnnotationsData.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	   	return outputStream -> {
+	   		boolean streamed = false;
+	   		CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+	   		try (CloseableIterator<AnnotationsData> annotations = iterator;
+	   				JsonGenerator generator = objectMapper.getFactory().createGenerator(countingStream)) {
+	   			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	   			if (ndjson) {
+	   				generator.setRootValueSeparator(new SerializedString("\n"));
+	   			}else {
+	   				generator.writeStartArray();
+	   			}
+	   			while (annotations.hasNext()) {
+	   				writer.writeValue(generator, annotations.next());
+	   			}
+	   			if (ndjson) {
+	   				generator.writeRaw('\n');
+	   			}else {
+	   				generator.writeEndArray();
+	   			}
+	   			streamed = true;
+	   		}finally {
+	   			// the duration includes writing to the client, the stream being consumed as it is produced
+	   			String outcome = streamed ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.FAILURE;
+	   			metrics.operation(total, STREAM_ANNOTATIONS_OPERATION, outcome);
+	   			metrics.responseSize(STREAM_ANNOTATIONS_OPERATION, outcome, countingStream.count);
+	   		}
+	   		logger.info("Streamed successfully annotations data for request for ftId {} and user {}", ftId, user);
+	   	};
+	}
+	
+	/**
+	 * Streams the annotations of several submissions, reading them with one query for each chunk of ftIds.
+	 * Each submission is written as an object with its ftId, a found flag, its annotations and the requested filenames that were not found,
+	 * in ftId order within each chunk; submissions without annotations are written with found false.
+	 * @return null if the request is not valid, with the errors in errorsOutput
+	 */
+	public StreamingResponseBody streamAnnotationsData(List<AnnotationsRequest> requests, boolean ndjson, AtomicReference<List<String>> errorsOutput) {
+		List<String> errorMessages = new ArrayList<>();
+		if (requests == null || requests.isEmpty()) {
+			errorMessages.add(TextminingApiPublicValidator.ANNOTATIONS_REQUEST_EMPTY_ERROR);
+		} else if (requests.size() > multiGetMaxFtIds) {
+			errorMessages.add(String.format(TextminingApiPublicValidator.ANNOTATIONS_REQUEST_TOO_LARGE_ERROR, multiGetMaxFtIds));
+		} else if (requests.stream().anyMatch(request -> request == null || Utility.isEmpty(request.getFtId()))) {
+			errorMessages.add(TextminingApiPublicValidator.FT_ID_EMPTY_ERROR);
+		}
+		if (!errorMessages.isEmpty()) {
+			metrics.validationErrors(MULTI_GET_ANNOTATIONS_OPERATION, errorMessages);
+			logger.error("Annotations multi-get was rejected as invalid: {}", String.join("\n", errorMessages));
+			errorsOutput.set(errorMessages);
+			return null;
+		}
+
+		String user = this.getUsername();
+		logger.info("Received annotations multi-get of {} ftIds for user {}", requests.size(), user);
+		Timer.Sample total = metrics.start();
+
+		// an empty set stands for all the files of the submission, which wins over the filenames of other entries with the same ftId
+		Map<String, Set<String>> filenamesByFtId = new LinkedHashMap<>();
+		for (AnnotationsRequest request : requests) {
+			Set<String> filenames = filenamesByFtId.get(request.getFtId());
+			if (request.getFilenames() == null || request.getFilenames().isEmpty()) {
+				filenamesByFtId.put(request.getFtId(), new HashSet<>());
+			} else if (filenames == null) {
+				filenamesByFtId.put(request.getFtId(), new HashSet<>(request.getFilenames()));
+			} else if (!filenames.isEmpty()) {
+				filenames.addAll(request.getFilenames());
+			}
+		}
+		List<Map<String, Set<String>>> chunks = new ArrayList<>();
+		for (Map.Entry<String, Set<String>> entry : filenamesByFtId.entrySet()) {
+			if (chunks.isEmpty() || chunks.get(chunks.size() - 1).size() >= multiGetChunkSize) {
+				chunks.add(new LinkedHashMap<>());
+			}
+			chunks.get(chunks.size() - 1).put(entry.getKey(), entry.getValue());
+		}
+
+		ObjectWriter writer = objectMapper.writerFor(AnnotationsData.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		return outputStream -> {
+			boolean streamed = false;
+			int found = 0;
+			CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(countingStream)) {
+				generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+				if (ndjson) {
+					generator.setRootValueSeparator(new SerializedString("\n"));
+				}else {
+					generator.writeStartArray();
+				}
+				for (Map<String, Set<String>> chunk : chunks) {
+					Set<String> notFound = new LinkedHashSet<>(chunk.keySet());
+					try (CloseableIterator<AnnotationsData> annotations = this.publicMongoService.streamAnnotations(chunk, user)) {
+						String ftId = null;
+						Set<String> filenames = new HashSet<>();
+						while (annotations.hasNext()) {
+							AnnotationsData annotationsData = annotations.next();
+							if (!annotationsData.getFtId().equals(ftId)) {
+								if (ftId != null) {
+									this.writeAnnotationsGroupEnd(generator, chunk.get(ftId), filenames);
+								}
+								ftId = annotationsData.getFtId();
+								filenames.clear();
+								notFound.remove(ftId);
+								found++;
+								generator.writeStartObject();
+								generator.writeStringField("ftId", ftId);
+								generator.writeBooleanField("found", true);
+								generator.writeArrayFieldStart("annotations");
+							}
+							writer.writeValue(generator, annotationsData);
+							filenames.add(annotationsData.getFilename());
+						}
+						if (ftId != null) {
+							this.writeAnnotationsGroupEnd(generator, chunk.get(ftId), filenames);
+						}
+					}
+					for (String ftId : notFound) {
+						generator.writeStartObject();
+						generator.writeStringField("ftId", ftId);
+						generator.writeBooleanField("found", false);
+						generator.writeEndObject();
+					}
+				}
+				if (ndjson) {
+					generator.writeRaw('\n');
+				}else {
+					generator.writeEndArray();
+				}
+				streamed = true;
+			}finally {
+				String outcome = streamed ? TextminingApiPublicMetrics.SUCCESS : TextminingApiPublicMetrics.FAILURE;
+				metrics.operation(total, MULTI_GET_ANNOTATIONS_OPERATION, outcome);
+				metrics.responseSize(MULTI_GET_ANNOTATIONS_OPERATION, outcome, countingStream.count);
+			}
+			logger.info("Streamed successfully annotations data of {} out of {} ftIds for user {}", found, filenamesByFtId.size(), user);
+		};
+	}
+
+	private void writeAnnotationsGroupEnd(JsonGenerator generator, Set<String> requestedFilenames, Set<String> foundFilenames) throws IOException {
+		generator.writeEndArray();
+		if (!requestedFilenames.isEmpty() && !foundFilenames.containsAll(requestedFilenames)) {
+			generator.writeArrayFieldStart("notFoundFilenames");
+			for (String filename : requestedFilenames) {
+				if (!foundFilenames.contains(filename)) {
+					generator.writeString(filename);
+				}
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+	}
+
 	public List<AnnotationsData> getAnnotationsData(String ftId) {
 		String user = this.getUsername();
 	   	logger.info("Received getAnnotationsData request for ftId {} and user {}", ftId, user);
-	   	List<AnnotationsData> list = this.mongoService.findAnnotations(ftId, user);
+	   	Timer.Sample total = metrics.start();
+	   	List<AnnotationsData> list = this.publicMongoService.findAnnotations(ftId, user);
 	   	if (list == null || list.isEmpty()) {
 	   		logger.error("No annotations data retrieved for request for ftId {} and user {}", ftId, user);
+	   		metrics.operation(total, GET_ALL_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.NOT_FOUND);
 	   	}else {
 	   		logger.info("Retrieved successfully annotations data for request for ftId {} and user {}", ftId, user);
-	   		list.forEach(annotations->{
-	   			annotations.setUser(null);
-	   			annotations.set_id(null);
-	   			annotations.setDateInserted(null);
-	   			annotations.setDateModified(null);
-	   		});
+	   		metrics.operation(total, GET_ALL_ANNOTATIONS_OPERATION, TextminingApiPublicMetrics.SUCCESS);
 	   	}
 	   	return list;
 	}
 
-	public SubmissionMessage getSubmissionStatus(String ftId) {
+	public boolean isAnnotationsCacheEnabled() {
+		return annotationsCache.isEnabled();
+	}
+	
+	/**
+	 * Version of the submission, read from the ftId/user/dateModified/status index only, giving the entity tag of its status and annotations.
+	 * @return null if the submission does not exist
+	 */
+	public SubmissionVersion getSubmissionVersion(String ftId) {
+		return this.publicMongoService.findSubmissionVersion(ftId, this.getUsername());
+	}
+	
+	/**
+	 * @param eTagOutput set to the entity tag of the submission, taken from the same document, if it exists
+	 */
+	public SubmissionMessage getSubmissionStatus(String ftId, AtomicReference<String> eTagOutput) {
 		String user = this.getUsername();
 	   	logger.info("Received getSubmission request for ftId {} and user {}", ftId, user);
-	   	SubmissionMessage ret = this.mongoService.findSubmission(ftId, user);
+	   	//irrelevant information not required in API response is not fetched at all
+	   	Timer.Sample total = metrics.start();
+	   	SubmissionMessage ret = this.publicMongoService.findSubmissionStatusWithDateModified(ftId, user);
 	   	if (ret == null) {
 	   		logger.error("No submission data retrieved for request for ftId {} and user {}", ftId, user);
+	   		metrics.operation(total, GET_SUBMISSION_STATUS_OPERATION, TextminingApiPublicMetrics.NOT_FOUND);
 	   	}else {
-	   		logger.info("Retrieved successfully submission data for request for ftId {} and user {}", ftId, user);
-	   	    //irrelevant information  not required in API response sat to null
-	   		ret.setUser(null);
-	   		ret.set_id(null);
-	   		ret.setDateInserted(null);
+	   		eTagOutput.set(new SubmissionVersion(ret.getDateModified(), ret.getStatus()).getETag());
 	   		ret.setDateModified(null);
-	   		if (ret.getFiles()!=null && ret.getFiles().length>0) {
-	   			for (FileInfo fileInfo : ret.getFiles()) {
-	   				fileInfo.setErrorComponent(null);
-	   			}
-	   		}
+	   		logger.info("Retrieved successfully submission data for request for ftId {} and user {}", ftId, user);
+	   		metrics.operation(total, GET_SUBMISSION_STATUS_OPERATION, TextminingApiPublicMetrics.SUCCESS);
 	   	}
 	   	
 	   	return ret;
 	}
-}
+	
+	/**
+	 * Lists the submissions of the user in modification date order, a page at a time: the cursor returned with a page,
+	 * sent back with the same filters, gives the next one. Pages are read by keyset on modification date and _id, so their cost
+	 * does not grow with the position in the listing, and submissions modified while paging show up again at the end.
+	 * @param statuses labels of the statuses to list, all of them if null or empty
+	 * @param modifiedSince ISO-8601 instant or milliseconds since the epoch, null for no lower bound
+	 * @param cursor null for the first page
+	 * @return null if the request is not valid, with the errors in errorsOutput
+	 */
+	public SubmissionsPage listSubmissions(List<String> statuses, String modifiedSince, String cursor, int limit, boolean includeFiles,
+			AtomicReference<List<String>> errorsOutput) {
+		List<String> errorMessages = new ArrayList<>();
+		Set<String> statusLabels = new LinkedHashSet<>();
+		if (statuses != null) {
+			for (String label : statuses) {
+				Status status = this.parseStatus(label);
+				if (status == null) {
+					errorMessages.add(String.format(TextminingApiPublicValidator.STATUS_NOT_VALID_ERROR, label));
+				} else {
+					statusLabels.add(status.getLabel());
+				}
+			}
+		}
+		Date since = null;
+		if (!Utility.isEmpty(modifiedSince)) {
+			since = this.parseDate(modifiedSince);
+			if (since == null) {
+				errorMessages.add(TextminingApiPublicValidator.MODIFIED_SINCE_NOT_VALID_ERROR);
+			}
+		}
+		Date afterDateModified = null;
+		String afterId = null;
+		if (!Utility.isEmpty(cursor)) {
+			String[] position = this.decodeCursor(cursor);
+			if (position == null) {
+				errorMessages.add(TextminingApiPublicValidator.CURSOR_NOT_VALID_ERROR);
+			} else {
+				afterDateModified = new Date(Long.parseLong(position[0]));
+				afterId = position[1];
+			}
+		}
+		if (limit < 1 || limit > maxListLimit) {
+			errorMessages.add(String.format(TextminingApiPublicValidator.LIMIT_NOT_VALID_ERROR, maxListLimit));
+		}
+		if (!errorMessages.isEmpty()) {
+			metrics.validationErrors(LIST_SUBMISSIONS_OPERATION, errorMessages);
+			logger.error("Submissions listing was rejected as invalid: {}", String.join("\n", errorMessages));
+			errorsOutput.set(errorMessages);
+			return null;
+		}
 
+		String user = this.getUsername();
+		logger.info("Received submissions listing request for user {} and statuses {}", user, statusLabels);
+		Timer.Sample total = metrics.start();
+		// one more than the page tells whether there is a next one
+		List<SubmissionMessage> submissions = this.publicMongoService.findSubmissions(user, statusLabels, since, afterDateModified, afterId, limit + 1, includeFiles);
+		String nextCursor = null;
+		if (submissions.size() > limit) {
+			submissions = new ArrayList<>(submissions.subList(0, limit));
+			SubmissionMessage last = submissions.get(limit - 1);
+			nextCursor = this.encodeCursor((Date) last.getDateModified(), last.get_id());
+		}
+		for (SubmissionMessage submission : submissions) {
+			submission.set_id(null);
+		}
+		metrics.operation(total, LIST_SUBMISSIONS_OPERATION, TextminingApiPublicMetrics.SUCCESS);
+		return new SubmissionsPage(submissions, nextCursor);
+	}
+
+	private Status parseStatus(String label) {
+		try {
+			return Status.getStatusByLabel(label);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private Date parseDate(String value) {
+		try {
+			return new Date(Long.parseLong(value));
+		} catch (NumberFormatException e) {
+			try {
+				return Date.from(Instant.parse(value));
+			} catch (DateTimeParseException e1) {
+				return null;
+			}
+		}
+	}
+
+	private String encodeCursor(Date dateModified, String id) {
+		String position = dateModified.getTime() + ":" + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return modification date in milliseconds and _id of the last submission of the previous page, null if the cursor is not valid
+	 */
+	private String[] decodeCursor(String cursor) {
+		try {
+			String[] ret = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 2);
+			if (ret.length != 2 || ret[1].isEmpty()) {
+				return null;
+			}
+			Long.parseLong(ret[0]);
+			return ret;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	public boolean isWatchAvailable() {
+		return submissionWatchService.isAvailable();
+	}
+
+	/**
+	 * Opens a Server-Sent Events stream that receives the status of the submission as soon as it is no longer pending, then closes.
+	 * @return null if the submission does not exist
+	 */
+	public SseEmitter watchSubmission(String ftId) {
+		String user = this.getUsername();
+		logger.info("Received watch request for ftId {} and user {}", ftId, user);
+		SubmissionMessage submission = this.publicMongoService.findSubmissionStatus(ftId, user);
+		if (submission == null) {
+			logger.error("No submission data retrieved for watch request for ftId {} and user {}", ftId, user);
+			return null;
+		}
+		
+		SseEmitter emitter = submissionWatchService.newEmitter();
+		if (Status.getStatusByLabel(submission.getStatus()) == Status.PENDING) {
+			submissionWatchService.watchSubmission(user, ftId, emitter);
+			// the submission could have completed before the emitter was registered
+			if (!this.publicMongoService.isSubmissionCompleted(ftId, user)) {
+				return emitter;
+			}
+			submissionWatchService.unwatchSubmission(user, ftId, emitter);
+			submission = this.publicMongoService.findSubmissionStatus(ftId, user);
+		}
+		submissionWatchService.complete(emitter, submission);
+		return emitter;
+	}
+	
+	/**
+	 * Opens a Server-Sent Events stream that receives the status of every submission of the user reaching a final status, until it times out.
+	 */
+	public SseEmitter watchSubmissions() {
+		String user = this.getUsername();
+		logger.info("Received watch request for all the submissions of user {}", user);
+		SseEmitter emitter = submissionWatchService.newEmitter();
+		submissionWatchService.watchUser(user, emitter);
+		return emitter;
+	}
+
+	/**
+	 * Counts the bytes written to the response, whose size is not known upfront when streaming.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+		
+		private long count;
+		
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
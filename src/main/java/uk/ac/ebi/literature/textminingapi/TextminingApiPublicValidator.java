@@ -13,6 +13,8 @@ public interface TextminingApiPublicValidator {
     public final static String SUBMISSION_ALREADY_EXISTING_ERROR="It exists already a submission for this user and ft_id in pending state";
     public final static String CALLBACK_EMPTY_ERROR="callback field can not be empty";
     public final static String CALLBACK_INVALID_URL_ERROR="callback field must be a valid URL";
+    public final static String CALLBACK_HOST_NOT_ALLOWED_ERROR="callback host is not one of the allowed hosts";
+    public final static String CALLBACK_NOT_ALLOWED_ERROR="callback host must resolve to a public address";
     public final static String NO_FILE_ERROR="The submission should contain at least one file";
     public final static String FILE_URL_NOT_VALID_ERROR="The url is not valid for file number %d";
     public final static String FILE_URL_EMPTY_ERROR="The url is not populated for file number %d";
@@ -20,8 +22,26 @@ public interface TextminingApiPublicValidator {
     public final static String SUBMISSION_NOT_FOUND_ERROR= "Can not be found a submission with ft_id %s";
     public final static String SUBMISSION_PENDING_ERROR_DELETION= "Submission with ft_id %s still to be fully processed. It can be deleted only afterwards the processing has been fully completed";
     public final static String DUPLICATE_FILENAME_ERROR= "File %s appears more than once in the request body";
+    public final static String BATCH_EMPTY_ERROR= "The batch should contain at least one submission";
+    public final static String BATCH_TOO_LARGE_ERROR= "The batch can contain at most %d submissions";
+    public final static String DUPLICATE_FT_ID_IN_BATCH_ERROR= "ft_id %s appears more than once in the batch";
+    public final static String ANNOTATIONS_REQUEST_EMPTY_ERROR= "The request should contain at least one ft_id";
+    public final static String ANNOTATIONS_REQUEST_TOO_LARGE_ERROR= "The request can contain at most %d ft_ids";
+    public final static String STATUS_NOT_VALID_ERROR= "Status %s is not valid";
+    public final static String MODIFIED_SINCE_NOT_VALID_ERROR= "modifiedSince must be an ISO-8601 instant or a number of milliseconds since the epoch";
+    public final static String CURSOR_NOT_VALID_ERROR= "cursor is not valid";
+    public final static String LIMIT_NOT_VALID_ERROR= "limit must be between 1 and %d";
     
-    boolean validateSubmission(SubmissionMessage obj, AtomicReference<List<String>> errorMessages, AtomicReference<SubmissionMessage> previousSubmission);
+    default boolean validateSubmission(SubmissionMessage obj, SubmissionMessage existingSubmission, AtomicReference<List<String>> errorMessages) {
+    	return validateSubmission(obj, existingSubmission, false, errorMessages);
+    }
     
-    boolean validateDeletion(String ftId, String user, AtomicReference<List<String>> errorMessages);
+    /**
+     * Validates a submission reporting all its errors, or only the first one when failFast is set.
+     * The errors of the files come in file order, followed by the first filename appearing more than once, if any;
+     * a missing file is reported as a file without filename and url.
+     */
+    boolean validateSubmission(SubmissionMessage obj, SubmissionMessage existingSubmission, boolean failFast, AtomicReference<List<String>> errorMessages);
+    
+    boolean validateDeletion(String ftId, AtomicReference<List<String>> errorMessages);
 }
@@ -1,25 +1,41 @@
 package uk.ac.ebi.literature.textminingapi;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import io.micrometer.core.instrument.MeterRegistry;
+
 @Configuration
 public class TextminingApiPublicWebSecurityConfigurerAdapter extends WebSecurityConfigurerAdapter {
 
 	private final MongoUserDetailsService userDetailsService;
 
-    public TextminingApiPublicWebSecurityConfigurerAdapter(MongoUserDetailsService userDetailsService) {
+	private final MeterRegistry meterRegistry;
+
+	@Value("${auth.cache.enable}")
+	private boolean authCacheEnabled;
+
+	@Value("${auth.cache.maxSize}")
+	private long authCacheMaxSize;
+
+	@Value("${auth.cache.ttlSeconds}")
+	private long authCacheTtlSeconds;
+
+    public TextminingApiPublicWebSecurityConfigurerAdapter(MongoUserDetailsService userDetailsService, MeterRegistry meterRegistry) {
         this.userDetailsService = userDetailsService;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
     public void configure(AuthenticationManagerBuilder builder) throws Exception {
-        builder.userDetailsService(userDetailsService);
+        builder.authenticationProvider(cachingAuthenticationProvider());
     }
 
     @Override
@@ -39,4 +55,13 @@ public class TextminingApiPublicWebSecurityConfigurerAdapter extends WebSecurity
         return new BCryptPasswordEncoder();
     }
 
-}
\ No newline at end of file
+    @Bean
+    public CachingAuthenticationProvider cachingAuthenticationProvider() throws Exception {
+        DaoAuthenticationProvider daoAuthenticationProvider = new DaoAuthenticationProvider();
+        daoAuthenticationProvider.setUserDetailsService(userDetailsService);
+        daoAuthenticationProvider.setPasswordEncoder(passwordEncoder());
+        daoAuthenticationProvider.afterPropertiesSet();
+        return new CachingAuthenticationProvider(daoAuthenticationProvider, authCacheEnabled, authCacheMaxSize, authCacheTtlSeconds, meterRegistry);
+    }
+
+}
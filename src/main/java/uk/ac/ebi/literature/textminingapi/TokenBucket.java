@@ -0,0 +1,65 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a generic cell rate algorithm: the only state is the theoretical arrival time
+ * of the next token, updated with a compare-and-set, so concurrent requests of the same user never block each other.
+ */
+class TokenBucket {
+
+	private final long emissionIntervalNanos;
+
+	private final long toleranceNanos;
+
+	private final int capacity;
+
+	private final AtomicLong theoreticalArrival;
+
+	/**
+	 * @param ratePerMinute tokens refilled each minute
+	 * @param capacity tokens that can be taken in a burst
+	 */
+	TokenBucket(long ratePerMinute, int capacity) {
+		this.emissionIntervalNanos = 60_000_000_000L / ratePerMinute;
+		this.capacity = capacity;
+		this.toleranceNanos = emissionIntervalNanos * capacity;
+		this.theoreticalArrival = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Takes the given tokens. A cost higher than the capacity is admitted only when the bucket is full and is then charged in full,
+	 * leaving the bucket in debt until the tokens above the capacity have been refilled, so that large requests cannot exceed the rate.
+	 * @return 0 when the tokens have been taken, otherwise the nanoseconds to wait before they are available
+	 */
+	long tryAcquire(int cost) {
+		long required = emissionIntervalNanos * Math.min(cost, capacity);
+		long increment = emissionIntervalNanos * cost;
+		while (true) {
+			long now = System.nanoTime();
+			long current = theoreticalArrival.get();
+			long start = Math.max(current, now);
+			long wait = start + required - now - toleranceNanos;
+			if (wait > 0) {
+				return wait;
+			}
+			if (theoreticalArrival.compareAndSet(current, start + increment)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the nanoseconds before the bucket is full again, debt included
+	 */
+	long nanosUntilFull() {
+		return Math.max(0, theoreticalArrival.get() - System.nanoTime());
+	}
+
+	/**
+	 * Gives back tokens taken by a request that has been rejected afterwards.
+	 */
+	void release(int cost) {
+		theoreticalArrival.addAndGet(-emissionIntervalNanos * cost);
+	}
+}
@@ -0,0 +1,95 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListener;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Subscription;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+
+/**
+ * Drops cached authentications as soon as a {@link Users} document changes, whichever process changed it, by following the change stream of the users collection.
+ * Deletions and renames drop the whole cache, since the previous username is not part of the event.
+ * The stream is opened again if it fails, dropping the whole cache as changes could have been missed in between;
+ * without a replica set the cached entries are only dropped when they expire.
+ */
+@Component
+@ConditionalOnProperty(name = "auth.cache.changeStream.enable", havingValue = "true")
+public class UsersChangeListener implements MessageListener<ChangeStreamDocument<Document>, Users> {
+
+	private static final Logger logger = LoggerFactory.getLogger(UsersChangeListener.class);
+
+	private final MongoTemplate mongoTemplate;
+
+	private final CachingAuthenticationProvider authenticationProvider;
+
+	private MessageListenerContainer container;
+
+	private volatile Subscription subscription;
+
+	public UsersChangeListener(MongoTemplate mongoTemplate, CachingAuthenticationProvider authenticationProvider) {
+		this.mongoTemplate = mongoTemplate;
+		this.authenticationProvider = authenticationProvider;
+	}
+
+	@PostConstruct
+	public void start() {
+		container = new DefaultMessageListenerContainer(mongoTemplate, new SimpleAsyncTaskExecutor("users-change-stream-"),
+				e -> logger.error("Problems in following the change stream of the users collection", e));
+		container.start();
+		this.subscribe();
+	}
+
+	private void subscribe() {
+		ChangeStreamRequest<Users> request = ChangeStreamRequest.builder(this)
+				.collection(mongoTemplate.getCollectionName(Users.class))
+				.fullDocumentLookup(FullDocument.UPDATE_LOOKUP)
+				.build();
+		subscription = container.register(request, Users.class);
+		logger.info("Started following the change stream of the users collection");
+	}
+
+	@Scheduled(fixedDelayString = "${auth.cache.changeStream.checkMs}")
+	public void resubscribe() {
+		if (subscription != null && !subscription.isActive()) {
+			container.remove(subscription);
+			authenticationProvider.invalidateAll();
+			this.subscribe();
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (container != null) {
+			container.stop();
+		}
+	}
+
+	@Override
+	public void onMessage(Message<ChangeStreamDocument<Document>, Users> message) {
+		ChangeStreamDocument<Document> event = message.getRaw();
+		Users user = message.getBody();
+		boolean renamed = event != null && event.getUpdateDescription() != null && event.getUpdateDescription().getUpdatedFields() != null
+				&& event.getUpdateDescription().getUpdatedFields().containsKey("username");
+		if (user == null || user.getUsername() == null || renamed || (event != null && event.getOperationType() == OperationType.DELETE)) {
+			authenticationProvider.invalidateAll();
+		} else {
+			authenticationProvider.invalidate(user.getUsername());
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import uk.ac.ebi.literature.textminingapi.pojo.AnnotationsData;
+
+/**
+ * Serialisation CPU of the annotations of one file in each of the negotiated formats, with gzip at the level used by the server.
+ * The bytes on the wire of each format are printed once per parameter set, before the measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotationsSerialisationBenchmark {
+
+	@Param({"10", "500", "5000"})
+	private int annotations;
+
+	private ObjectMapper jsonMapper;
+
+	private ObjectMapper cborMapper;
+
+	private ObjectMapper smileMapper;
+
+	private AnnotationsData annotationsData;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// same settings as BinaryFormatsConfiguration
+		jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+		cborMapper = Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+		smileMapper = Jackson2ObjectMapperBuilder.json().factory(new SmileFactory()).build();
+		annotationsData = jsonMapper.readValue(BenchmarkData.annotationsJson("user", "PMC1234567", "file.txt", annotations), AnnotationsData.class);
+
+		byte[] json = jsonMapper.writeValueAsBytes(annotationsData);
+		byte[] cbor = cborMapper.writeValueAsBytes(annotationsData);
+		byte[] smile = smileMapper.writeValueAsBytes(annotationsData);
+		System.out.printf("%n%d annotations, bytes on the wire: json %d (gzip %d), cbor %d (gzip %d), smile %d (gzip %d)%n", annotations,
+				json.length, gzip(json).length, cbor.length, gzip(cbor).length, smile.length, gzip(smile).length);
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream ret = new ByteArrayOutputStream(data.length / 4 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(ret)) {
+			gzip.write(data);
+		}
+		return ret.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] json() throws IOException {
+		return jsonMapper.writeValueAsBytes(annotationsData);
+	}
+
+	@Benchmark
+	public byte[] jsonGzip() throws IOException {
+		return gzip(jsonMapper.writeValueAsBytes(annotationsData));
+	}
+
+	@Benchmark
+	public byte[] cbor() throws IOException {
+		return cborMapper.writeValueAsBytes(annotationsData);
+	}
+
+	@Benchmark
+	public byte[] cborGzip() throws IOException {
+		return gzip(cborMapper.writeValueAsBytes(annotationsData));
+	}
+
+	@Benchmark
+	public byte[] smile() throws IOException {
+		return smileMapper.writeValueAsBytes(annotationsData);
+	}
+
+	@Benchmark
+	public byte[] smileGzip() throws IOException {
+		return gzip(smileMapper.writeValueAsBytes(annotationsData));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(AnnotationsSerialisationBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,72 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Representative submissions and annotation documents for the benchmarks, built as the JSON the API exchanges
+ * so that they go through the same Jackson mapping as real requests and Mongo documents.
+ */
+final class BenchmarkData {
+
+	private static final String[] TYPES = {"Gene_Proteins", "Diseases", "Organisms", "Chemicals", "Gene Ontology", "Accession Numbers"};
+
+	private static final String[] SECTIONS = {"Title", "Abstract", "Introduction", "Methods", "Results", "Discussion", "Figure", "Table"};
+
+	static final ObjectMapper OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Annotations of one file as stored by the pipeline, internal fields included.
+	 */
+	static ObjectNode annotations(String user, String ftId, String filename, int annotations) {
+		ObjectNode ret = OBJECT_MAPPER.createObjectNode();
+		ret.put("_id", Integer.toHexString(ftId.hashCode()) + Integer.toHexString(filename.hashCode()));
+		ret.put("ftId", ftId);
+		ret.put("user", user);
+		ret.put("filename", filename);
+		ret.put("dateInserted", "2022-03-01T10:15:30.000+00:00");
+		ret.put("dateModified", "2022-03-01T10:20:45.000+00:00");
+		ArrayNode anns = ret.putArray("anns");
+		for (int i = 0; i < annotations; i++) {
+			String type = TYPES[i % TYPES.length];
+			ObjectNode ann = anns.addObject();
+			ann.put("type", type);
+			ann.put("exact", "term " + i);
+			ann.put("prefix", "was observed in patients where the ");
+			ann.put("postfix", " expression levels were significantly ");
+			ann.put("section", SECTIONS[i % SECTIONS.length]);
+			ann.put("position", (i / 20 + 1) + "." + (i % 20 + 1));
+			ArrayNode tags = ann.putArray("tags");
+			ObjectNode tag = tags.addObject();
+			tag.put("name", "term " + i);
+			tag.put("uri", "http://purl.uniprot.org/uniprot/P" + (10000 + i));
+		}
+		return ret;
+	}
+
+	static String annotationsJson(String user, String ftId, String filename, int annotations) {
+		return annotations(user, ftId, filename, annotations).toString();
+	}
+
+	/**
+	 * Submission as sent to /submit, with files spread over a few hosts as real clients do.
+	 */
+	static String submissionJson(String ftId, int files) {
+		ObjectNode ret = OBJECT_MAPPER.createObjectNode();
+		ret.put("ftId", ftId);
+		ret.put("callback", "https://client.example.org/textmining/callback");
+		ArrayNode array = ret.putArray("files");
+		for (int i = 0; i < files; i++) {
+			ObjectNode file = array.addObject();
+			file.put("filename", "file" + i + ".txt");
+			file.put("url", "https://storage" + (i % 4) + ".example.org/submissions/" + ftId + "/file" + i + ".txt");
+		}
+		return ret.toString();
+	}
+}
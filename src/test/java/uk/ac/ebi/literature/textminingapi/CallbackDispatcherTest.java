@@ -0,0 +1,245 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Delivers completions through {@link CallbackDispatcher} on an embedded mongod to a local receiver answering after a fixed delay,
+ * checking that each completion is delivered exactly once and that no more requests than allowed are in flight towards the receiver,
+ * and printing the deliveries per second and the latency from the completion to its receipt.
+ */
+public class CallbackDispatcherTest {
+
+	private static final int COMPLETIONS = 2000;
+
+	private static final long RECEIVER_DELAY_MS = 20;
+
+	private static final long TIMEOUT_MS = 120000;
+
+	private static EmbeddedMongo mongo;
+
+	private static HttpServer receiver;
+
+	private static ExecutorService receiverExecutor;
+
+	// completion payloads received, by their JSON
+	private static final Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+
+	private static final AtomicInteger requests = new AtomicInteger();
+
+	// nanoTime of each completion, by ftId, and milliseconds from it to the receipt of the completion
+	private static final Map<String, Long> completedAt = new ConcurrentHashMap<>();
+
+	private static final Histogram latencyMs = new ConcurrentHistogram(3);
+
+	private static final AtomicInteger inFlight = new AtomicInteger();
+
+	private static final AtomicInteger maxInFlight = new AtomicInteger();
+
+	private MongoTemplate mongoTemplate;
+
+	private CallbackDispatcher dispatcher;
+
+	@BeforeAll
+	public static void startServers() throws IOException {
+		mongo = EmbeddedMongo.start(false);
+		receiver = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		receiverExecutor = Executors.newFixedThreadPool(32);
+		receiver.setExecutor(receiverExecutor);
+		receiver.createContext("/callback", exchange -> {
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			try (InputStream body = exchange.getRequestBody()) {
+				JsonNode json = BenchmarkData.OBJECT_MAPPER.readTree(body);
+				if (json.isArray()) {
+					json.forEach(CallbackDispatcherTest::receive);
+				} else {
+					receive(json);
+				}
+				requests.incrementAndGet();
+				Thread.sleep(RECEIVER_DELAY_MS);
+				exchange.sendResponseHeaders(200, -1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				exchange.sendResponseHeaders(503, -1);
+			} finally {
+				inFlight.decrementAndGet();
+				exchange.close();
+			}
+		});
+		receiver.start();
+	}
+
+	private static void receive(JsonNode completion) {
+		if (received.computeIfAbsent(completion.toString(), key -> new AtomicInteger()).incrementAndGet() == 1) {
+			Long start = completedAt.get(completion.path("ftId").asText());
+			if (start != null) {
+				latencyMs.recordValue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			}
+		}
+	}
+
+	@AfterAll
+	public static void stopServers() {
+		if (receiver != null) {
+			receiver.stop(0);
+			receiverExecutor.shutdownNow();
+		}
+		if (mongo != null) {
+			mongo.close();
+		}
+	}
+
+	@BeforeEach
+	public void setUp() {
+		mongo.clear();
+		received.clear();
+		requests.set(0);
+		completedAt.clear();
+		latencyMs.reset();
+		maxInFlight.set(0);
+		mongoTemplate = mongo.getMongoTemplate();
+		MongoLeaseLock lock = new MongoLeaseLock(mongoTemplate);
+		ReflectionTestUtils.setField(lock, "locksCollection", EmbeddedMongo.collection("mongoDb.locksCollection"));
+		// the receiver listens on the loopback address
+		dispatcher = new CallbackDispatcher(mongoTemplate, BenchmarkData.OBJECT_MAPPER, new SimpleMeterRegistry(), new CallbackAddressGuard(true, ""),
+				new TextminingApiPublicMongoService(mongoTemplate), lock, 5000);
+		ReflectionTestUtils.setField(dispatcher, "maxConcurrentPerHost", 8);
+		ReflectionTestUtils.setField(dispatcher, "batchSize", 100);
+		ReflectionTestUtils.setField(dispatcher, "maxAttempts", 10);
+		ReflectionTestUtils.setField(dispatcher, "initialBackoffMs", 1000L);
+		ReflectionTestUtils.setField(dispatcher, "maxBackoffMs", 60000L);
+		ReflectionTestUtils.setField(dispatcher, "leaseMs", 60000L);
+		ReflectionTestUtils.setField(dispatcher, "requestTimeoutMs", 30000L);
+		ReflectionTestUtils.setField(dispatcher, "deliveredRetentionMs", TimeUnit.DAYS.toMillis(7));
+		ReflectionTestUtils.setField(dispatcher, "sweepEnabled", true);
+		ReflectionTestUtils.setField(dispatcher, "sweepDelayMs", 0L);
+		ReflectionTestUtils.setField(dispatcher, "sweepPageSize", 100);
+		ReflectionTestUtils.setField(dispatcher, "sweepMaxPages", 100);
+		ReflectionTestUtils.setField(dispatcher, "sweepLockMs", 60000L);
+		ReflectionTestUtils.setField(dispatcher, "resumeTokensCollection", EmbeddedMongo.collection("mongoDb.resumeTokensCollection"));
+		dispatcher.ensureIndexes();
+	}
+
+	private String callbackUrl() {
+		return "http://" + receiver.getAddress().getAddress().getHostAddress() + ':' + receiver.getAddress().getPort() + "/callback";
+	}
+
+	private SubmissionMessage completedSubmission(int i) throws IOException {
+		SubmissionMessage ret = BenchmarkData.OBJECT_MAPPER.readValue(BenchmarkData.submissionJson("PMC" + (1000000 + i), 3), SubmissionMessage.class);
+		ret.setUser("user" + (i % 10));
+		ret.setStatus("success");
+		ret.setCallback(this.callbackUrl());
+		ret.setDateModified(new Date(1650000000000L + i));
+		return ret;
+	}
+
+	/**
+	 * Runs the dispatcher, as the scheduler would, until the receiver has got the given number of completions.
+	 * @return the milliseconds taken
+	 */
+	private long dispatchUntilReceived(int completions) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		while (received.size() < completions) {
+			assertTrue(System.currentTimeMillis() - start < TIMEOUT_MS, "Only " + received.size() + " of " + completions + " completions delivered");
+			dispatcher.dispatch();
+			Thread.sleep(5);
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	@ParameterizedTest(name = "coalesce {0}")
+	@ValueSource(booleans = {false, true})
+	public void deliversEachCompletionOnce(boolean coalesce) throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "coalesce", coalesce);
+		for (int i = 0; i < COMPLETIONS; i++) {
+			SubmissionMessage submission = this.completedSubmission(i);
+			completedAt.put(submission.getFtId(), System.nanoTime());
+			dispatcher.onSubmissionCompleted(SubmissionCompletedEvent.of(this, submission));
+		}
+		long elapsedMs = this.dispatchUntilReceived(COMPLETIONS);
+		System.out.printf("coalesce %b: %d completions in %d requests, %d ms, %.0f deliveries/s, latency p50 %d ms p99 %d ms max %d ms, %d requests in flight at most%n",
+				coalesce, COMPLETIONS, requests.get(), elapsedMs, COMPLETIONS * 1000.0 / Math.max(1, elapsedMs), latencyMs.getValueAtPercentile(50),
+				latencyMs.getValueAtPercentile(99), latencyMs.getMaxValue(), maxInFlight.get());
+		assertEquals(COMPLETIONS, latencyMs.getTotalCount());
+		assertTrue(maxInFlight.get() <= 8, maxInFlight.get() + " requests in flight towards the receiver");
+
+		// the same completions observed again, as after a change stream resume, are not delivered twice
+		for (int i = 0; i < COMPLETIONS; i++) {
+			dispatcher.onSubmissionCompleted(SubmissionCompletedEvent.of(this, this.completedSubmission(i)));
+		}
+		dispatcher.dispatch();
+		Thread.sleep(500);
+		assertEquals(COMPLETIONS, received.size());
+		received.forEach((completion, count) -> assertEquals(1, count.get(), completion));
+		assertEquals(COMPLETIONS, mongoTemplate.count(Query.query(Criteria.where("deliveredAt").exists(true)), CallbackDelivery.class));
+		// the host has nothing in flight any more and is forgotten
+		assertNull(((Map<?, ?>) ReflectionTestUtils.getField(dispatcher, "hostsInFlight")).get(receiver.getAddress().getAddress().getHostAddress()));
+	}
+
+	@Test
+	public void sweepQueuesCompletionsMissedByTheChangeStream() throws Exception {
+		String submissions = mongoTemplate.getCollectionName(SubmissionMessage.class);
+		// first run only places the checkpoint
+		dispatcher.sweep();
+		Document checkpoint = mongoTemplate.findById("callback-sweep", Document.class, EmbeddedMongo.collection("mongoDb.resumeTokensCollection"));
+		assertNotNull(checkpoint);
+		Thread.sleep(5);
+
+		for (int i = 0; i < 250; i++) {
+			SubmissionMessage submission = this.completedSubmission(i);
+			submission.set_id("submission" + i);
+			submission.setDateModified(new Date());
+			mongoTemplate.insert(submission, submissions);
+		}
+		// the first completion was observed by the change stream as well
+		SubmissionMessage observed = mongoTemplate.findById("submission0", SubmissionMessage.class, submissions);
+		dispatcher.onSubmissionCompleted(SubmissionCompletedEvent.of(this, observed));
+
+		dispatcher.sweep();
+		this.dispatchUntilReceived(250);
+		dispatcher.sweep();
+		dispatcher.dispatch();
+		Thread.sleep(500);
+		assertEquals(250, received.size());
+		received.forEach((completion, count) -> assertEquals(1, count.get(), completion));
+		List<CallbackDelivery> deliveries = mongoTemplate.findAll(CallbackDelivery.class);
+		assertEquals(250, deliveries.size());
+		deliveries.forEach(delivery -> assertNotNull(delivery.getDeliveredAt(), delivery.get_id()));
+	}
+}
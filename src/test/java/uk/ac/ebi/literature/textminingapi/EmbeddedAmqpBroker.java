@@ -0,0 +1,77 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.qpid.server.SystemLauncher;
+import org.springframework.util.FileSystemUtils;
+
+import de.flapdoodle.embed.process.runtime.Network;
+
+/**
+ * AMQP 0-9-1 broker running in the test JVM, an in-memory Qpid Broker-J standing in for RabbitMQ,
+ * with publisher confirms and passive queue declarations as the API uses them.
+ * It accepts guest/guest on the default virtual host.
+ */
+final class EmbeddedAmqpBroker implements AutoCloseable {
+
+	static final String USERNAME = "guest";
+
+	static final String PASSWORD = "guest";
+
+	private static final String CONFIGURATION = "{\"name\": \"textmining\", \"modelVersion\": \"8.0\","
+			+ "\"authenticationproviders\": [{\"name\": \"plain\", \"type\": \"Plain\", \"secureOnlyMechanisms\": [],"
+			+ " \"users\": [{\"name\": \"" + USERNAME + "\", \"password\": \"" + PASSWORD + "\", \"type\": \"managed\"}]}],"
+			+ "\"ports\": [{\"name\": \"AMQP\", \"port\": \"${qpid.amqp_port}\", \"authenticationProvider\": \"plain\","
+			+ " \"virtualhostaliases\": [{\"name\": \"nameAlias\", \"type\": \"nameAlias\"}, {\"name\": \"defaultAlias\", \"type\": \"defaultAlias\"}]}],"
+			+ "\"virtualhostnodes\": [{\"name\": \"default\", \"type\": \"Memory\", \"defaultVirtualHostNode\": \"true\","
+			+ " \"virtualHostInitialConfiguration\": \"{\\\"type\\\": \\\"Memory\\\"}\"}]}";
+
+	private final SystemLauncher launcher;
+
+	private final Path workDir;
+
+	private final int port;
+
+	private EmbeddedAmqpBroker(SystemLauncher launcher, Path workDir, int port) {
+		this.launcher = launcher;
+		this.workDir = workDir;
+		this.port = port;
+	}
+
+	static EmbeddedAmqpBroker start() throws Exception {
+		int port = Network.getFreeServerPort();
+		Path workDir = Files.createTempDirectory("qpid");
+		Path configuration = Files.writeString(workDir.resolve("config.json"), CONFIGURATION);
+		Map<String, Object> attributes = new HashMap<>();
+		attributes.put("type", "Memory");
+		attributes.put("initialConfigurationLocation", configuration.toUri().toString());
+		attributes.put("startupLoggedToSystemOut", false);
+		attributes.put("context", Map.of("qpid.amqp_port", String.valueOf(port), "qpid.work_dir", workDir.toString()));
+		SystemLauncher launcher = new SystemLauncher();
+		try {
+			launcher.startup(attributes);
+		} catch (Exception e) {
+			FileSystemUtils.deleteRecursively(workDir);
+			throw e;
+		}
+		return new EmbeddedAmqpBroker(launcher, workDir, port);
+	}
+
+	int getPort() {
+		return port;
+	}
+
+	@Override
+	public void close() {
+		launcher.shutdown();
+		try {
+			FileSystemUtils.deleteRecursively(workDir);
+		} catch (IOException e) {
+			// a temporary directory left behind
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.event.CommandListener;
+
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.ImmutableMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfig;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.config.Storage;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+
+/**
+ * mongod started for a test class, with a MongoTemplate mapping the collections of the API under the names of application.properties.
+ * It can be started as a single node replica set, needed by transactions and change streams.
+ */
+final class EmbeddedMongo implements AutoCloseable {
+
+	static final String DATABASE = "textmining";
+
+	static final Map<String, Object> COLLECTIONS = Map.of(
+			"mongoDb.submissionsCollection", "tm_submissions",
+			"mongoDb.annotationsCollection", "tm_annotations",
+			"mongoDb.usersCollection", "tm_users",
+			"mongoDb.callbackDeliveriesCollection", "tm_callback_deliveries",
+			"mongoDb.idempotencyCollection", "tm_idempotency_keys",
+			"mongoDb.outboxCollection", "tm_submission_outbox",
+			"mongoDb.locksCollection", "tm_locks",
+			"mongoDb.resumeTokensCollection", "tm_resume_tokens");
+
+	private static final String REPLICA_SET = "rs0";
+
+	private final MongodExecutable executable;
+
+	private final MongoClient client;
+
+	private final MongoTemplate mongoTemplate;
+
+	private final String connectionString;
+
+	private EmbeddedMongo(MongodExecutable executable, String connectionString, CommandListener[] listeners) {
+		this.executable = executable;
+		this.connectionString = connectionString;
+		MongoClientSettings.Builder settings = MongoClientSettings.builder().applyConnectionString(new ConnectionString(connectionString));
+		for (CommandListener listener : listeners) {
+			settings.addCommandListener(listener);
+		}
+		this.client = MongoClients.create(settings.build());
+
+		// the collection names of the mapped classes are resolved from the environment
+		StaticApplicationContext context = new StaticApplicationContext();
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("collections", COLLECTIONS));
+		context.refresh();
+		MongoMappingContext mappingContext = new MongoMappingContext();
+		mappingContext.setApplicationContext(context);
+		mappingContext.afterPropertiesSet();
+		SimpleMongoClientDatabaseFactory factory = new SimpleMongoClientDatabaseFactory(client, DATABASE);
+		MappingMongoConverter converter = new MappingMongoConverter(new DefaultDbRefResolver(factory), mappingContext);
+		converter.setApplicationContext(context);
+		converter.afterPropertiesSet();
+		this.mongoTemplate = new MongoTemplate(factory, converter);
+	}
+
+	/**
+	 * @param listeners notified of the commands sent by the client of the MongoTemplate
+	 */
+	static EmbeddedMongo start(boolean replicaSet, CommandListener... listeners) throws IOException {
+		int port = Network.getFreeServerPort();
+		ImmutableMongodConfig.Builder config = MongodConfig.builder().version(Version.Main.V5_0).net(new Net(port, Network.localhostIsIPv6()));
+		if (replicaSet) {
+			config.replication(new Storage(null, REPLICA_SET, 0));
+		}
+		MongodExecutable executable = MongodStarter.getDefaultInstance().prepare(config.build());
+		executable.start();
+		EmbeddedMongo ret = new EmbeddedMongo(executable, "mongodb://localhost:" + port + "/?directConnection=true", listeners);
+		if (replicaSet) {
+			ret.initiateReplicaSet(port);
+		}
+		return ret;
+	}
+
+	private void initiateReplicaSet(int port) {
+		client.getDatabase("admin").runCommand(new Document("replSetInitiate", new Document("_id", REPLICA_SET)
+				.append("members", List.of(new Document("_id", 0).append("host", "localhost:" + port)))));
+		for (int i = 0; i < 300; i++) {
+			if (Boolean.TRUE.equals(client.getDatabase("admin").runCommand(new Document("hello", 1)).getBoolean("isWritablePrimary"))) {
+				return;
+			}
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		throw new IllegalStateException("Replica set " + REPLICA_SET + " not elected a primary");
+	}
+
+	MongoTemplate getMongoTemplate() {
+		return mongoTemplate;
+	}
+
+	String getConnectionString() {
+		return connectionString;
+	}
+
+	static String collection(String property) {
+		return (String) COLLECTIONS.get(property);
+	}
+
+	/**
+	 * Drops all the collections, indexes included, between tests.
+	 */
+	void clear() {
+		mongoTemplate.getDb().drop();
+	}
+
+	@Override
+	public void close() {
+		client.close();
+		executable.stop();
+	}
+}
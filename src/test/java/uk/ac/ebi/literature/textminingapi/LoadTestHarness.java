@@ -0,0 +1,512 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.bson.Document;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+
+/**
+ * Load test of the whole API in this JVM: boots {@link TextminingApiPublicApplication} with the loadtest profile against an embedded mongod,
+ * started as a replica set for the transactions and change streams, and an {@link EmbeddedAmqpBroker}, then drives a mixed
+ * /submit, /getSubmissionStatus, /getAnnotations and /delete workload from a fixed number of clients, each sending its next request
+ * as soon as the previous one is answered.
+ * <p>
+ * Users are seeded with completed submissions and their annotations, read by the workload, and with completed submissions to delete.
+ * A stand-in for the pipeline consumes the submissions queue and completes the pending submissions after a delay, so that their completions
+ * reach a local callback receiver and the workload deletes its own submissions once they are completed.
+ * <p>
+ * Throughput and p50/p99/p999 latency per endpoint are written as JSON to {@code loadtest.output}, the baseline to diff between releases,
+ * and the run fails when more than {@code loadtest.maxErrorRate} of the requests of an endpoint get an unexpected answer.
+ * The workload is set with the {@code loadtest.*} system properties below, any other system property overrides the API configuration.
+ */
+public class LoadTestHarness {
+
+	private static final String PROFILE = "loadtest";
+
+	private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 16);
+
+	private static final int WARMUP_SECONDS = Integer.getInteger("loadtest.warmupSeconds", 10);
+
+	private static final int DURATION_SECONDS = Integer.getInteger("loadtest.durationSeconds", 60);
+
+	private static final int USERS = Integer.getInteger("loadtest.users", 10);
+
+	// completed submissions of each user read by the workload, and others deleted by it until it can delete its own
+	private static final int SUBMISSIONS_PER_USER = Integer.getInteger("loadtest.submissionsPerUser", 200);
+
+	private static final int DELETABLE_PER_USER = Integer.getInteger("loadtest.deletablePerUser", 200);
+
+	private static final int FILES = Integer.getInteger("loadtest.files", 3);
+
+	private static final int ANNOTATIONS_PER_FILE = Integer.getInteger("loadtest.annotationsPerFile", 50);
+
+	// share of the requests going to each endpoint, reads dominating as in production
+	private static final String MIX = System.getProperty("loadtest.mix", "submit=20,getSubmissionStatus=40,getAnnotations=30,delete=10");
+
+	// time the stand-in pipeline takes to complete a submission
+	private static final long PIPELINE_DELAY_MS = Long.getLong("loadtest.pipelineDelayMs", 500L);
+
+	private static final double MAX_ERROR_RATE = Double.parseDouble(System.getProperty("loadtest.maxErrorRate", "0.01"));
+
+	private static final String OUTPUT = System.getProperty("loadtest.output", "target/loadtest-baseline.json");
+
+	private static final long PIPELINE_POLL_MS = 100;
+
+	private static final long START = 1650000000000L;
+
+	private static final String SUBMIT = "submit";
+
+	private static final String GET_SUBMISSION_STATUS = "getSubmissionStatus";
+
+	private static final String GET_ANNOTATIONS = "getAnnotations";
+
+	private static final String DELETE = "delete";
+
+	private final Map<String, EndpointStats> endpoints = new LinkedHashMap<>();
+
+	private final String[] mixEndpoints;
+
+	private final int[] mixWeights;
+
+	private final List<SeededUser> users = new ArrayList<>();
+
+	// ft_ids of the submissions sent by the workload
+	private final AtomicLong submitted = new AtomicLong();
+
+	private final LongAdder callbacksReceived = new LongAdder();
+
+	private final LongAdder messagesConsumed = new LongAdder();
+
+	private HttpServer receiver;
+
+	private String baseUrl;
+
+	private HttpClient httpClient;
+
+	private volatile long measureFromNanos;
+
+	private LoadTestHarness() {
+		for (String endpoint : new String[] {SUBMIT, GET_SUBMISSION_STATUS, GET_ANNOTATIONS, DELETE}) {
+			endpoints.put(endpoint, new EndpointStats());
+		}
+		String[] shares = MIX.split(",");
+		mixEndpoints = new String[shares.length];
+		mixWeights = new int[shares.length];
+		for (int i = 0; i < shares.length; i++) {
+			String[] share = shares[i].trim().split("=");
+			if (share.length != 2 || !endpoints.containsKey(share[0])) {
+				throw new IllegalArgumentException("Invalid share of loadtest.mix: " + shares[i]);
+			}
+			mixEndpoints[i] = share[0];
+			mixWeights[i] = (i > 0 ? mixWeights[i - 1] : 0) + Integer.parseInt(share[1]);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestHarness harness = new LoadTestHarness();
+		ObjectNode report;
+		try (EmbeddedMongo mongo = EmbeddedMongo.start(true); EmbeddedAmqpBroker broker = EmbeddedAmqpBroker.start()) {
+			report = harness.run(mongo, broker);
+		}
+		File output = new File(OUTPUT);
+		if (output.getParentFile() != null) {
+			output.getParentFile().mkdirs();
+		}
+		BenchmarkData.OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(output, report);
+		System.out.println(BenchmarkData.OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+		System.out.println("Baseline written to " + output.getAbsolutePath());
+
+		boolean failed = false;
+		for (Map.Entry<String, EndpointStats> endpoint : harness.endpoints.entrySet()) {
+			long requests = endpoint.getValue().latencyMicros.getTotalCount();
+			long errors = endpoint.getValue().errors.sum();
+			if (errors > requests * MAX_ERROR_RATE) {
+				System.err.println(endpoint.getKey() + ": " + errors + " unexpected answers out of " + requests + " requests");
+				failed = true;
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	private ObjectNode run(EmbeddedMongo mongo, EmbeddedAmqpBroker broker) throws Exception {
+		this.startReceiver();
+		this.seed(mongo.getMongoTemplate());
+
+		List<String> args = new ArrayList<>();
+		args.add("--spring.profiles.active=" + PROFILE);
+		args.add("--server.port=0");
+		args.add("--spring.data.mongodb.uri=" + mongo.getConnectionString());
+		args.add("--spring.data.mongodb.database=" + EmbeddedMongo.DATABASE);
+		args.add("--spring.rabbitmq.host=localhost");
+		args.add("--spring.rabbitmq.port=" + broker.getPort());
+		args.add("--spring.rabbitmq.username=" + EmbeddedAmqpBroker.USERNAME);
+		args.add("--spring.rabbitmq.password=" + EmbeddedAmqpBroker.PASSWORD);
+		args.add("--spring.rabbitmq.virtual-host=/");
+		EmbeddedMongo.COLLECTIONS.forEach((property, collection) -> args.add("--" + property + "=" + collection));
+
+		CachingConnectionFactory connectionFactory = new CachingConnectionFactory("localhost", broker.getPort());
+		connectionFactory.setUsername(EmbeddedAmqpBroker.USERNAME);
+		connectionFactory.setPassword(EmbeddedAmqpBroker.PASSWORD);
+		ScheduledExecutorService pipeline = Executors.newSingleThreadScheduledExecutor();
+		SimpleMessageListenerContainer consumer = null;
+		try (ConfigurableApplicationContext context = SpringApplication.run(TextminingApiPublicApplication.class, args.toArray(new String[0]))) {
+			Environment environment = context.getEnvironment();
+			baseUrl = "http://localhost:" + environment.getProperty("local.server.port");
+			consumer = this.startPipeline(connectionFactory, environment.getProperty("rabbitmq.tmExchange"), environment.getProperty("rabbitmq.submissionsQueue"));
+			MongoTemplate mongoTemplate = mongo.getMongoTemplate();
+			String submissions = EmbeddedMongo.collection("mongoDb.submissionsCollection");
+			pipeline.scheduleWithFixedDelay(() -> completePendingSubmissions(mongoTemplate, submissions), PIPELINE_POLL_MS, PIPELINE_POLL_MS, TimeUnit.MILLISECONDS);
+
+			httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10)).build();
+			this.drive();
+		} finally {
+			pipeline.shutdownNow();
+			if (consumer != null) {
+				consumer.stop();
+			}
+			connectionFactory.destroy();
+			receiver.stop(0);
+		}
+		return this.report();
+	}
+
+	/**
+	 * Completed submissions with the annotations of each file, and users authenticated with their name as password.
+	 */
+	private void seed(MongoTemplate mongoTemplate) throws IOException {
+		BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+		List<Document> userDocuments = new ArrayList<>();
+		for (int u = 0; u < USERS; u++) {
+			String username = PROFILE + u;
+			userDocuments.add(new Document("username", username).append("password", passwordEncoder.encode(username)));
+			SeededUser user = new SeededUser("Basic " + Base64.getEncoder().encodeToString((username + ':' + username).getBytes(StandardCharsets.UTF_8)));
+			users.add(user);
+
+			List<Document> submissions = new ArrayList<>();
+			List<Document> annotations = new ArrayList<>();
+			for (int i = 0; i < SUBMISSIONS_PER_USER + DELETABLE_PER_USER; i++) {
+				String ftId = "PMC" + (1000000 + i);
+				Document submission = Document.parse(this.submissionJson(ftId));
+				submission.append("_id", username + '_' + ftId).append("user", username).append("status", Status.SUCCESS.getLabel())
+						.append("dateInserted", new Date(START)).append("dateModified", new Date(START + i));
+				for (Object file : submission.getList("files", Object.class)) {
+					((Document) file).append("status", Status.SUCCESS.getLabel());
+				}
+				submissions.add(submission);
+				if (i < SUBMISSIONS_PER_USER) {
+					user.readable.add(ftId);
+					for (int f = 0; f < FILES; f++) {
+						Document annotation = Document.parse(BenchmarkData.annotationsJson(username, ftId, "file" + f + ".txt", ANNOTATIONS_PER_FILE));
+						annotation.remove("_id");
+						annotations.add(annotation.append("dateInserted", new Date(START)).append("dateModified", new Date(START)));
+					}
+				} else {
+					user.deletable.add(ftId);
+				}
+			}
+			mongoTemplate.getCollection(EmbeddedMongo.collection("mongoDb.submissionsCollection")).insertMany(submissions);
+			mongoTemplate.getCollection(EmbeddedMongo.collection("mongoDb.annotationsCollection")).insertMany(annotations);
+		}
+		mongoTemplate.getCollection(EmbeddedMongo.collection("mongoDb.usersCollection")).insertMany(userDocuments);
+	}
+
+	/**
+	 * Receives the callbacks of the completed submissions on the loopback address.
+	 */
+	private void startReceiver() throws IOException {
+		receiver = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		receiver.setExecutor(Executors.newFixedThreadPool(8));
+		receiver.createContext("/callback", exchange -> {
+			try (InputStream body = exchange.getRequestBody()) {
+				JsonNode json = BenchmarkData.OBJECT_MAPPER.readTree(body);
+				callbacksReceived.add(json.isArray() ? json.size() : 1);
+				exchange.sendResponseHeaders(200, -1);
+			} finally {
+				exchange.close();
+			}
+		});
+		receiver.start();
+	}
+
+	private String receiverUrl(String path) {
+		return "http://" + receiver.getAddress().getAddress().getHostAddress() + ':' + receiver.getAddress().getPort() + path;
+	}
+
+	private String submissionJson(String ftId) {
+		ObjectNode ret = BenchmarkData.OBJECT_MAPPER.createObjectNode();
+		ret.put("ftId", ftId);
+		ret.put("callback", this.receiverUrl("/callback"));
+		ArrayNode files = ret.putArray("files");
+		for (int i = 0; i < FILES; i++) {
+			ObjectNode file = files.addObject();
+			file.put("filename", "file" + i + ".txt");
+			file.put("url", this.receiverUrl("/files/" + ftId + "/file" + i + ".txt"));
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Declares the submissions queue, unless the utility already did, and drains it as the pipeline would.
+	 */
+	private SimpleMessageListenerContainer startPipeline(CachingConnectionFactory connectionFactory, String exchange, String queue) {
+		RabbitAdmin admin = new RabbitAdmin(connectionFactory);
+		if (admin.getQueueProperties(queue) == null) {
+			admin.declareQueue(new Queue(queue));
+			if (exchange != null && !exchange.isEmpty()) {
+				admin.declareExchange(new DirectExchange(exchange));
+				admin.declareBinding(BindingBuilder.bind(new Queue(queue)).to(new DirectExchange(exchange)).with(queue));
+			}
+		}
+		SimpleMessageListenerContainer ret = new SimpleMessageListenerContainer(connectionFactory);
+		ret.setQueueNames(queue);
+		ret.setMessageListener(message -> messagesConsumed.increment());
+		ret.start();
+		return ret;
+	}
+
+	/**
+	 * Completes, as the pipeline would, the submissions pending for longer than the pipeline delay.
+	 */
+	private static void completePendingSubmissions(MongoTemplate mongoTemplate, String submissions) {
+		try {
+			Query query = Query.query(Criteria.where("status").is(Status.PENDING.getLabel())
+					.and("dateModified").lt(new Date(System.currentTimeMillis() - PIPELINE_DELAY_MS)));
+			Update update = new Update().set("status", Status.SUCCESS.getLabel()).set("files.$[].status", Status.SUCCESS.getLabel()).currentDate("dateModified");
+			mongoTemplate.updateMulti(query, update, submissions);
+		} catch (RuntimeException e) {
+			// tried again at the next poll
+			System.err.println("Stand-in pipeline failed to complete the pending submissions: " + e);
+		}
+	}
+
+	/**
+	 * Runs the clients through the warmup, which is not recorded, and the measured duration.
+	 */
+	private void drive() throws Exception {
+		long start = System.nanoTime();
+		measureFromNanos = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+		long end = measureFromNanos + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+		ExecutorService clients = Executors.newFixedThreadPool(CONCURRENCY);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int c = 0; c < CONCURRENCY; c++) {
+				SeededUser user = users.get(c % users.size());
+				futures.add(clients.submit(() -> {
+					while (System.nanoTime() < end) {
+						this.sendNext(user);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	private void sendNext(SeededUser user) throws InterruptedException {
+		int r = ThreadLocalRandom.current().nextInt(mixWeights[mixWeights.length - 1]);
+		int i = 0;
+		while (r >= mixWeights[i]) {
+			i++;
+		}
+		String endpoint = mixEndpoints[i];
+		HttpRequest request;
+		switch (endpoint) {
+			case SUBMIT:
+				String ftId = "PMC" + (5000000 + submitted.incrementAndGet());
+				request = this.request(user, "/submit").header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+						.POST(HttpRequest.BodyPublishers.ofString(this.submissionJson(ftId))).build();
+				if (this.send(endpoint, request)) {
+					user.submitted.add(new Submitted(ftId));
+				}
+				break;
+			case GET_SUBMISSION_STATUS:
+				this.send(endpoint, this.request(user, "/getSubmissionStatus/" + user.randomReadable()).GET().build());
+				break;
+			case GET_ANNOTATIONS:
+				this.send(endpoint, this.request(user, "/getAnnotations/" + user.randomReadable())
+						.header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE).GET().build());
+				break;
+			default:
+				String deletable = user.nextDeletable();
+				if (deletable == null) {
+					if (System.nanoTime() >= measureFromNanos) {
+						endpoints.get(endpoint).skipped.increment();
+					}
+					break;
+				}
+				this.send(endpoint, this.request(user, "/delete/" + deletable).DELETE().build());
+		}
+	}
+
+	private HttpRequest.Builder request(SeededUser user, String path) {
+		return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(60)).header(HttpHeaders.AUTHORIZATION, user.authorization);
+	}
+
+	/**
+	 * @return true if the API answered 200
+	 */
+	private boolean send(String endpoint, HttpRequest request) throws InterruptedException {
+		EndpointStats stats = endpoints.get(endpoint);
+		long start = System.nanoTime();
+		String status;
+		try {
+			status = String.valueOf(httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode());
+		} catch (IOException e) {
+			status = e.getClass().getSimpleName();
+		}
+		long elapsed = System.nanoTime() - start;
+		if (start >= measureFromNanos) {
+			stats.latencyMicros.recordValue(TimeUnit.NANOSECONDS.toMicros(elapsed));
+			stats.statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+			if (!"200".equals(status)) {
+				stats.errors.increment();
+			}
+		}
+		return "200".equals(status);
+	}
+
+	private ObjectNode report() {
+		ObjectNode ret = BenchmarkData.OBJECT_MAPPER.createObjectNode();
+		ObjectNode workload = ret.putObject("workload");
+		workload.put("concurrency", CONCURRENCY);
+		workload.put("warmupSeconds", WARMUP_SECONDS);
+		workload.put("durationSeconds", DURATION_SECONDS);
+		workload.put("users", USERS);
+		workload.put("submissionsPerUser", SUBMISSIONS_PER_USER);
+		workload.put("filesPerSubmission", FILES);
+		workload.put("annotationsPerFile", ANNOTATIONS_PER_FILE);
+		workload.put("mix", MIX);
+		workload.put("pipelineDelayMs", PIPELINE_DELAY_MS);
+
+		ObjectNode endpointsNode = ret.putObject("endpoints");
+		endpoints.forEach((endpoint, stats) -> {
+			Histogram latency = stats.latencyMicros;
+			ObjectNode node = endpointsNode.putObject(endpoint);
+			node.put("requests", latency.getTotalCount());
+			node.put("throughputPerSecond", (double) latency.getTotalCount() / DURATION_SECONDS);
+			ObjectNode latencyNode = node.putObject("latencyMs");
+			latencyNode.put("p50", latency.getValueAtPercentile(50) / 1000.0);
+			latencyNode.put("p99", latency.getValueAtPercentile(99) / 1000.0);
+			latencyNode.put("p999", latency.getValueAtPercentile(99.9) / 1000.0);
+			latencyNode.put("max", latency.getMaxValue() / 1000.0);
+			ObjectNode statuses = node.putObject("statuses");
+			new TreeMap<>(stats.statuses).forEach((status, count) -> statuses.put(status, count.sum()));
+			node.put("errors", stats.errors.sum());
+			node.put("skipped", stats.skipped.sum());
+		});
+		ret.put("messagesConsumed", messagesConsumed.sum());
+		ret.put("callbacksReceived", callbacksReceived.sum());
+		return ret;
+	}
+
+	private static final class EndpointStats {
+
+		private final Histogram latencyMicros = new ConcurrentHistogram(3);
+
+		private final Map<String, LongAdder> statuses = new ConcurrentHashMap<>();
+
+		private final LongAdder errors = new LongAdder();
+
+		// deletes not sent for lack of a completed submission
+		private final LongAdder skipped = new LongAdder();
+	}
+
+	private static final class Submitted {
+
+		private final String ftId;
+
+		private final long time = System.currentTimeMillis();
+
+		private Submitted(String ftId) {
+			this.ftId = ftId;
+		}
+	}
+
+	/**
+	 * A seeded user and the ft_ids the clients acting as this user work on, shared by these clients.
+	 */
+	private static final class SeededUser {
+
+		private final String authorization;
+
+		private final List<String> readable = new ArrayList<>();
+
+		private final ConcurrentLinkedQueue<String> deletable = new ConcurrentLinkedQueue<>();
+
+		private final ConcurrentLinkedQueue<Submitted> submitted = new ConcurrentLinkedQueue<>();
+
+		private SeededUser(String authorization) {
+			this.authorization = authorization;
+		}
+
+		private String randomReadable() {
+			return readable.get(ThreadLocalRandom.current().nextInt(readable.size()));
+		}
+
+		/**
+		 * The oldest submission of the workload, once the stand-in pipeline has had time to complete it, otherwise a seeded one.
+		 */
+		private String nextDeletable() {
+			Submitted oldest = submitted.peek();
+			if (oldest != null && System.currentTimeMillis() - oldest.time > PIPELINE_DELAY_MS + 10 * PIPELINE_POLL_MS && submitted.remove(oldest)) {
+				return oldest.ftId;
+			}
+			return deletable.poll();
+		}
+	}
+}
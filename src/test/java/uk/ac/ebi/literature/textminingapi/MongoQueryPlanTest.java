@@ -0,0 +1,198 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+import uk.ac.ebi.literature.textminingapi.pojo.AnnotationsData;
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Runs the queries of {@link TextminingApiPublicMongoService} on an embedded mongod with the indexes of {@link MongoIndexes} and of the service and a few thousand documents,
+ * and explains each find command they send: the test fails if a plan scans the collection or examines more documents than it returns.
+ */
+public class MongoQueryPlanTest {
+
+	private static final int USERS = 10;
+
+	private static final int SUBMISSIONS_PER_USER = 300;
+
+	private static final int FILES = 3;
+
+	private static final long START = 1650000000000L;
+
+	private static final List<BsonDocument> finds = Collections.synchronizedList(new ArrayList<>());
+
+	private static EmbeddedMongo mongo;
+
+	private static MongoTemplate mongoTemplate;
+
+	private static TextminingApiPublicMongoService service;
+
+	@BeforeAll
+	public static void setUp() throws IOException {
+		CommandListener listener = new CommandListener() {
+			@Override
+			public void commandStarted(CommandStartedEvent event) {
+				if ("find".equals(event.getCommandName())) {
+					finds.add(event.getCommand().clone());
+				}
+			}
+		};
+		mongo = EmbeddedMongo.start(false, listener);
+		mongoTemplate = mongo.getMongoTemplate();
+		MongoIndexes indexes = new MongoIndexes(mongoTemplate);
+		ReflectionTestUtils.setField(indexes, "enabled", true);
+		indexes.ensureIndexes();
+		service = new TextminingApiPublicMongoService(mongoTemplate);
+		service.ensureIndexes();
+
+		String[] statuses = {Status.PENDING.getLabel(), Status.SUCCESS.getLabel(), Status.FAILED.getLabel()};
+		List<Document> submissions = new ArrayList<>();
+		List<Document> annotations = new ArrayList<>();
+		for (int u = 0; u < USERS; u++) {
+			for (int i = 0; i < SUBMISSIONS_PER_USER; i++) {
+				String user = user(u);
+				String ftId = ftId(i);
+				String status = statuses[i % statuses.length];
+				List<Document> files = new ArrayList<>();
+				for (int f = 0; f < FILES; f++) {
+					files.add(new Document("filename", filename(f)).append("url", "https://storage.example.org/" + ftId + "/" + filename(f)).append("status", status));
+					annotations.add(new Document("ftId", ftId).append("user", user).append("filename", filename(f))
+							.append("anns", List.of(new Document("type", "Diseases").append("exact", "term " + f)))
+							.append("dateInserted", new Date(START)).append("dateModified", new Date(START)));
+				}
+				submissions.add(new Document("_id", user + '_' + ftId).append("ftId", ftId).append("user", user).append("status", status)
+						.append("callback", "https://client.example.org/callback").append("files", files)
+						.append("dateInserted", new Date(START)).append("dateModified", new Date(START + u * SUBMISSIONS_PER_USER + i)));
+			}
+		}
+		mongoTemplate.getCollection(mongoTemplate.getCollectionName(SubmissionMessage.class)).insertMany(submissions);
+		mongoTemplate.getCollection(mongoTemplate.getCollectionName(AnnotationsData.class)).insertMany(annotations);
+	}
+
+	@AfterAll
+	public static void tearDown() {
+		if (mongo != null) {
+			mongo.close();
+		}
+	}
+
+	private static String user(int u) {
+		return "user" + u;
+	}
+
+	private static String ftId(int i) {
+		return "PMC" + (1000000 + i);
+	}
+
+	private static String filename(int f) {
+		return "file" + f + ".txt";
+	}
+
+	/**
+	 * Explains the find commands sent by the operation, which must send at least one.
+	 */
+	private static void assertIndexed(String description, Runnable operation) {
+		finds.clear();
+		operation.run();
+		List<BsonDocument> commands = new ArrayList<>(finds);
+		assertFalse(commands.isEmpty(), description + " sent no find command");
+		for (BsonDocument command : commands) {
+			BsonDocument find = new BsonDocument();
+			// only the find itself, without the session and cluster fields added by the driver
+			command.forEach((key, value) -> {
+				if (!key.startsWith("$") && !"lsid".equals(key) && !"txnNumber".equals(key)) {
+					find.put(key, value);
+				}
+			});
+			Document explain = mongoTemplate.getDb().runCommand(new Document("explain", find).append("verbosity", "executionStats"));
+			Document winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+			Document stats = explain.get("executionStats", Document.class);
+			int returned = stats.getInteger("nReturned");
+			int examined = stats.getInteger("totalDocsExamined");
+			assertFalse(hasStage(winningPlan, "COLLSCAN"), description + " scans the collection: " + find.toJson() + " " + winningPlan.toJson());
+			assertTrue(examined <= returned, description + " examines " + examined + " documents to return " + returned + ": " + find.toJson() + " " + winningPlan.toJson());
+		}
+	}
+
+	private static boolean hasStage(Object plan, String stage) {
+		if (plan instanceof Document) {
+			Document document = (Document) plan;
+			if (stage.equals(document.get("stage"))) {
+				return true;
+			}
+			return document.values().stream().anyMatch(value -> hasStage(value, stage));
+		}
+		if (plan instanceof List) {
+			return ((List<?>) plan).stream().anyMatch(value -> hasStage(value, stage));
+		}
+		return false;
+	}
+
+	@Test
+	public void submissionLookups() {
+		assertIndexed("findSubmissionVersion", () -> service.findSubmissionVersion(ftId(10), user(3)));
+		assertIndexed("findSubmissionStatus", () -> service.findSubmissionStatus(ftId(10), user(3)));
+		assertIndexed("findSubmissionStatusWithDateModified", () -> service.findSubmissionStatusWithDateModified(ftId(10), user(3)));
+		assertIndexed("existsSubmission", () -> service.existsSubmission(ftId(10), user(3)));
+		assertIndexed("isSubmissionCompleted", () -> service.isSubmissionCompleted(ftId(10), user(3)));
+		assertIndexed("findSubmissions by ftIds", () -> service.findSubmissions(List.of(ftId(1), ftId(2), ftId(200)), user(3)));
+	}
+
+	@Test
+	public void annotationLookups() {
+		assertIndexed("findAnnotations of a file", () -> service.findAnnotations(ftId(10), user(3), filename(1)));
+		assertIndexed("findAnnotations of a submission", () -> service.findAnnotations(ftId(10), user(3)));
+		assertIndexed("streamAnnotations", () -> {
+			try (CloseableIterator<AnnotationsData> annotations = service.streamAnnotations(
+					Map.of(ftId(10), Set.of(), ftId(11), Set.of(filename(0), filename(2))), user(3))) {
+				annotations.forEachRemaining(annotation -> {
+				});
+			}
+		});
+	}
+
+	@Test
+	public void submissionListing() {
+		Date afterDateModified = new Date(START + 3 * SUBMISSIONS_PER_USER + 100);
+		String afterId = user(3) + '_' + ftId(100);
+		assertIndexed("findSubmissions first page", () -> service.findSubmissions(user(3), List.of(), null, null, null, 50, false));
+		assertIndexed("findSubmissions next page", () -> service.findSubmissions(user(3), List.of(), null, afterDateModified, afterId, 50, true));
+		assertIndexed("findSubmissions by status", () -> service.findSubmissions(user(3), List.of(Status.SUCCESS.getLabel()),
+				new Date(START + 3 * SUBMISSIONS_PER_USER + 50), afterDateModified, afterId, 50, false));
+		assertIndexed("findSubmissions by statuses", () -> service.findSubmissions(user(3),
+				List.of(Status.SUCCESS.getLabel(), Status.FAILED.getLabel()), null, null, null, 50, true));
+	}
+
+	@Test
+	public void backgroundScans() {
+		Date cutoff = new Date(START + 5 * SUBMISSIONS_PER_USER);
+		assertIndexed("findStalePendingSubmissions first page", () -> service.findStalePendingSubmissions(cutoff, null, null, 100));
+		assertIndexed("findStalePendingSubmissions next page",
+				() -> service.findStalePendingSubmissions(cutoff, new Date(START + 1000), user(3) + '_' + ftId(100), 100));
+		assertIndexed("findCompletedSubmissionsWithCallback first page", () -> service.findCompletedSubmissionsWithCallback(cutoff, null, null, 100));
+		assertIndexed("findCompletedSubmissionsWithCallback next page",
+				() -> service.findCompletedSubmissionsWithCallback(cutoff, new Date(START + 1000), user(3) + '_' + ftId(100), 100));
+	}
+}
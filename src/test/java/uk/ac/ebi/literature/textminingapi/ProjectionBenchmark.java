@@ -0,0 +1,150 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import uk.ac.ebi.literature.textminingapi.pojo.AnnotationsData;
+import uk.ac.ebi.literature.textminingapi.pojo.FileInfo;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Decoding, as the driver does, and mapping of the documents read by /getAnnotations and /getSubmissionStatus, as full documents whose internal fields are then nulled
+ * and as the documents returned by the server-side projections of {@link TextminingApiPublicMongoService}.
+ * The BSON bytes transferred for each are printed once per parameter set, before the measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+
+	private static final List<String> INTERNAL_FIELDS = List.of("_id", "user", "dateInserted", "dateModified");
+
+	@Param({"10", "500", "5000"})
+	private int size;
+
+	private static final DocumentCodec CODEC = new DocumentCodec();
+
+	private MappingMongoConverter converter;
+
+	private RawBsonDocument fullAnnotations;
+
+	private RawBsonDocument projectedAnnotations;
+
+	private RawBsonDocument fullSubmission;
+
+	private RawBsonDocument projectedSubmission;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		// the collection names of the mapped classes are resolved from the environment
+		StaticApplicationContext context = new StaticApplicationContext();
+		context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("collections",
+				Map.of("mongoDb.annotationsCollection", "annotations", "mongoDb.submissionsCollection", "submissions")));
+		context.refresh();
+		MongoMappingContext mappingContext = new MongoMappingContext();
+		mappingContext.setApplicationContext(context);
+		mappingContext.afterPropertiesSet();
+		converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+		converter.setApplicationContext(context);
+		converter.afterPropertiesSet();
+
+		Document annotations = withDates(Document.parse(BenchmarkData.annotationsJson("user", "PMC1234567", "file.txt", size)));
+		fullAnnotations = raw(annotations);
+		INTERNAL_FIELDS.forEach(annotations::remove);
+		projectedAnnotations = raw(annotations);
+
+		// files of a submission that went through the pipeline, some of them failed
+		Document submission = withDates(Document.parse(BenchmarkData.submissionJson("PMC1234567", size)));
+		submission.put("_id", "PMC1234567_user");
+		submission.put("user", "user");
+		submission.put("status", "success");
+		submission.getList("files", Document.class).forEach(file -> {
+			file.put("status", file.getString("filename").hashCode() % 10 == 0 ? "failed" : "success");
+			file.put("errorComponent", "textmining pipeline: annotator");
+		});
+		fullSubmission = raw(submission);
+		INTERNAL_FIELDS.forEach(submission::remove);
+		submission.getList("files", Document.class).forEach(file -> file.remove("errorComponent"));
+		projectedSubmission = raw(submission);
+
+		System.out.printf("%nsize %d, BSON bytes transferred: annotations full %d projected %d, submission full %d projected %d%n", size,
+				fullAnnotations.getByteBuffer().remaining(), projectedAnnotations.getByteBuffer().remaining(),
+				fullSubmission.getByteBuffer().remaining(), projectedSubmission.getByteBuffer().remaining());
+	}
+
+	private static Document withDates(Document document) {
+		document.put("dateInserted", new Date());
+		document.put("dateModified", new Date());
+		return document;
+	}
+
+	private static RawBsonDocument raw(Document document) {
+		return new RawBsonDocument(document, CODEC);
+	}
+
+	@Benchmark
+	public AnnotationsData annotationsFullThenNulled() {
+		AnnotationsData ret = converter.read(AnnotationsData.class, fullAnnotations.decode(CODEC));
+		ret.set_id(null);
+		ret.setUser(null);
+		ret.setDateInserted(null);
+		ret.setDateModified(null);
+		return ret;
+	}
+
+	@Benchmark
+	public AnnotationsData annotationsProjected() {
+		return converter.read(AnnotationsData.class, projectedAnnotations.decode(CODEC));
+	}
+
+	@Benchmark
+	public SubmissionMessage submissionFullThenNulled() {
+		SubmissionMessage ret = converter.read(SubmissionMessage.class, fullSubmission.decode(CODEC));
+		ret.set_id(null);
+		ret.setUser(null);
+		ret.setDateInserted(null);
+		ret.setDateModified(null);
+		for (FileInfo file : ret.getFiles()) {
+			file.setErrorComponent(null);
+		}
+		return ret;
+	}
+
+	@Benchmark
+	public SubmissionMessage submissionProjected() {
+		return converter.read(SubmissionMessage.class, projectedSubmission.decode(CODEC));
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ProjectionBenchmark.class.getSimpleName()).build()).run();
+	}
+}
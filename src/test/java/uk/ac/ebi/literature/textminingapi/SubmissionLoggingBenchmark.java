@@ -0,0 +1,120 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.core.config.builder.api.AppenderComponentBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilder;
+import org.apache.logging.log4j.core.config.builder.api.ConfigurationBuilderFactory;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Throughput of request threads logging a submission, with the whole payload three times at INFO as /submit used to do
+ * and with the single summary line logged now, each through a synchronous file appender and through the asynchronous one of log4j2.xml.
+ * The payload is rendered as JSON, standing in for the toString() of the submission.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SubmissionLoggingBenchmark {
+
+	@Param({"false", "true"})
+	private boolean async;
+
+	@Param({"10", "500"})
+	private int files;
+
+	private Path logDirectory;
+
+	private LoggerContext loggerContext;
+
+	private Logger logger;
+
+	private SubmissionMessage submission;
+
+	@Setup
+	public void setUp() throws IOException {
+		logDirectory = Files.createTempDirectory("logging-benchmark");
+		// same appenders and layout as log4j2.xml
+		ConfigurationBuilder<BuiltConfiguration> builder = ConfigurationBuilderFactory.newConfigurationBuilder();
+		builder.add(builder.newAppender("File", "File")
+				.addAttribute("fileName", logDirectory.resolve("benchmark.log").toString())
+				.addAttribute("immediateFlush", !async)
+				.add(builder.newLayout("PatternLayout").addAttribute("pattern", " %d %p %c{1.} [%t] %m%n")));
+		String appender = "File";
+		if (async) {
+			AppenderComponentBuilder asyncAppender = builder.newAppender("Async", "Async")
+					.addAttribute("bufferSize", 8192).addAttribute("includeLocation", false)
+					.addComponent(builder.newAppenderRef("File"));
+			builder.add(asyncAppender);
+			appender = "Async";
+		}
+		builder.add(builder.newRootLogger(Level.INFO).add(builder.newAppenderRef(appender)));
+		loggerContext = Configurator.initialize(builder.build());
+		logger = loggerContext.getLogger(TextminingApiPublicService.class.getName());
+
+		submission = BenchmarkData.OBJECT_MAPPER.readValue(BenchmarkData.submissionJson("PMC1234567", files), SubmissionMessage.class);
+		submission.setUser("user");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Configurator.shutdown(loggerContext);
+		try (var paths = Files.walk(logDirectory)) {
+			paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private String payload() throws JsonProcessingException {
+		return BenchmarkData.OBJECT_MAPPER.writeValueAsString(submission);
+	}
+
+	@Benchmark
+	public void fullPayload() throws JsonProcessingException {
+		logger.info("Received post submission: {}", payload());
+		logger.info("Inserted new submission to DB: " + payload());
+		logger.info("Processed post submission with success: {}", payload());
+	}
+
+	@Benchmark
+	public void summary() {
+		logger.debug("Received post submission: {}", submission);
+		logger.debug("{} submission to DB: {}", "Inserted new", submission);
+		logger.info("Processed post submission with success: ftId={} user={} files={} outcome={} durationMs={}", submission.getFtId(), submission.getUser(),
+				submission.getFiles().length, TextminingApiPublicMetrics.SUCCESS, 12L);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SubmissionLoggingBenchmark.class.getSimpleName()).build()).run();
+	}
+}
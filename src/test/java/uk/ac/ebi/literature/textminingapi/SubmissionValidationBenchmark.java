@@ -0,0 +1,103 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.validator.routines.UrlValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import uk.ac.ebi.literature.textminingapi.pojo.FileInfo;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * CPU of {@link TextminingApiPublicValidatorImpl#validateSubmission} on valid submissions, against checking the same URLs
+ * with a new {@link UrlValidator} per URL as the validator used to do, and on submissions with errors in both reporting modes.
+ * Run with {@code -prof gc} for the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmissionValidationBenchmark {
+
+	@Param({"1", "100", "10000"})
+	private int files;
+
+	private TextminingApiPublicValidator validator;
+
+	private SubmissionMessage submission;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		// private addresses allowed, so that the callback host is not resolved and the numbers do not depend on DNS
+		validator = new TextminingApiPublicValidatorImpl(new CallbackAddressGuard(true, ""), true, false);
+		submission = BenchmarkData.OBJECT_MAPPER.readValue(BenchmarkData.submissionJson("PMC1234567", files), SubmissionMessage.class);
+	}
+
+	@Benchmark
+	public boolean validateSubmission() {
+		return validator.validateSubmission(submission, null, new AtomicReference<List<String>>());
+	}
+
+	/**
+	 * Submission with a duplicate filename every tenth file and a missing URL every seventh file.
+	 */
+	@State(Scope.Benchmark)
+	public static class InvalidSubmission {
+
+		@Param({"false", "true"})
+		private boolean failFast;
+
+		private SubmissionMessage submission;
+
+		@Setup(Level.Trial)
+		public void setUp(SubmissionValidationBenchmark benchmark) throws IOException {
+			submission = BenchmarkData.OBJECT_MAPPER.readValue(BenchmarkData.submissionJson("PMC1234567", benchmark.files), SubmissionMessage.class);
+			FileInfo[] files = submission.getFiles();
+			for (int i = 1; i < files.length; i++) {
+				if (i % 10 == 0) {
+					files[i].setFilename(files[i - 1].getFilename());
+				}
+				if (i % 7 == 0) {
+					files[i].setUrl(null);
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public boolean validateInvalidSubmission(InvalidSubmission invalid) {
+		return validator.validateSubmission(invalid.submission, null, invalid.failFast, new AtomicReference<List<String>>());
+	}
+
+	@Benchmark
+	public boolean urlValidatorPerUrl() {
+		boolean ret = new UrlValidator(UrlValidator.ALLOW_LOCAL_URLS).isValid(submission.getCallback());
+		for (FileInfo file : submission.getFiles()) {
+			ret &= new UrlValidator(UrlValidator.ALLOW_LOCAL_URLS).isValid(file.getUrl());
+		}
+		return ret;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SubmissionValidationBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,101 @@
+package uk.ac.ebi.literature.textminingapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.ebi.literature.textminingapi.pojo.FileInfo;
+import uk.ac.ebi.literature.textminingapi.pojo.Status;
+import uk.ac.ebi.literature.textminingapi.pojo.SubmissionMessage;
+
+/**
+ * Checks the errors reported by {@link TextminingApiPublicValidatorImpl#validateSubmission} and their order, as returned to the clients,
+ * with all the errors and in fail-fast mode, where only the first of them is reported.
+ */
+public class TextminingApiPublicValidatorImplTest {
+
+	private final TextminingApiPublicValidator validator = new TextminingApiPublicValidatorImpl(new CallbackAddressGuard(true, ""), true, false);
+
+	/**
+	 * Six files: a valid one, one without filename and with an invalid url, a duplicate of the first, a missing one,
+	 * one without url and a duplicate of the previous one.
+	 */
+	private static SubmissionMessage invalidSubmission() throws IOException {
+		SubmissionMessage ret = BenchmarkData.OBJECT_MAPPER.readValue(BenchmarkData.submissionJson("PMC1234567", 6), SubmissionMessage.class);
+		FileInfo[] files = ret.getFiles();
+		files[1].setFilename("");
+		files[1].setUrl("https//storage.example.org/file1.txt");
+		files[2].setFilename(files[0].getFilename());
+		files[3] = null;
+		files[4].setUrl(null);
+		files[5].setFilename(files[4].getFilename());
+		return ret;
+	}
+
+	private List<String> validate(SubmissionMessage submission, SubmissionMessage existingSubmission, boolean failFast) {
+		AtomicReference<List<String>> errors = new AtomicReference<>();
+		boolean valid = validator.validateSubmission(submission, existingSubmission, failFast, errors);
+		assertEquals(errors.get().isEmpty(), valid);
+		return errors.get();
+	}
+
+	@Test
+	public void acceptsValidSubmission() throws IOException {
+		SubmissionMessage submission = BenchmarkData.OBJECT_MAPPER.readValue(BenchmarkData.submissionJson("PMC1234567", 3), SubmissionMessage.class);
+		assertTrue(this.validate(submission, null, false).isEmpty());
+		assertTrue(this.validate(submission, null, true).isEmpty());
+	}
+
+	@Test
+	public void reportsFileErrorsInOrderThenTheFirstDuplicate() throws IOException {
+		List<String> expected = Arrays.asList(
+				String.format(TextminingApiPublicValidator.FILE_NAME_EMPTY_ERROR, 2),
+				String.format(TextminingApiPublicValidator.FILE_URL_NOT_VALID_ERROR, 2),
+				String.format(TextminingApiPublicValidator.FILE_NAME_EMPTY_ERROR, 4),
+				String.format(TextminingApiPublicValidator.FILE_URL_EMPTY_ERROR, 4),
+				String.format(TextminingApiPublicValidator.FILE_URL_EMPTY_ERROR, 5),
+				String.format(TextminingApiPublicValidator.DUPLICATE_FILENAME_ERROR, "file0.txt"));
+		assertEquals(expected, this.validate(invalidSubmission(), null, false));
+		assertEquals(expected.subList(0, 1), this.validate(invalidSubmission(), null, true));
+	}
+
+	@Test
+	public void reportsSubmissionErrorsBeforeFileErrors() throws IOException {
+		SubmissionMessage submission = invalidSubmission();
+		submission.setCallback("not a url");
+		SubmissionMessage existingSubmission = new SubmissionMessage();
+		existingSubmission.setStatus(Status.PENDING.getLabel());
+
+		List<String> errors = this.validate(submission, existingSubmission, false);
+		assertEquals(Arrays.asList(TextminingApiPublicValidator.SUBMISSION_ALREADY_EXISTING_ERROR, TextminingApiPublicValidator.CALLBACK_INVALID_URL_ERROR),
+				errors.subList(0, 2));
+		assertEquals(8, errors.size());
+		assertEquals(Collections.singletonList(TextminingApiPublicValidator.SUBMISSION_ALREADY_EXISTING_ERROR), this.validate(submission, existingSubmission, true));
+	}
+
+	@Test
+	public void reportsDuplicateOnlyWhenFilesAreValid() throws IOException {
+		SubmissionMessage submission = BenchmarkData.OBJECT_MAPPER.readValue(BenchmarkData.submissionJson("PMC1234567", 4), SubmissionMessage.class);
+		submission.getFiles()[3].setFilename(submission.getFiles()[1].getFilename());
+		List<String> expected = Collections.singletonList(String.format(TextminingApiPublicValidator.DUPLICATE_FILENAME_ERROR, "file1.txt"));
+		assertEquals(expected, this.validate(submission, null, false));
+		assertEquals(expected, this.validate(submission, null, true));
+	}
+
+	@Test
+	public void reportsMissingFieldsAndFiles() {
+		SubmissionMessage submission = new SubmissionMessage();
+		assertEquals(Arrays.asList(TextminingApiPublicValidator.FT_ID_EMPTY_ERROR, TextminingApiPublicValidator.CALLBACK_EMPTY_ERROR,
+				TextminingApiPublicValidator.NO_FILE_ERROR), this.validate(submission, null, false));
+		assertEquals(Collections.singletonList(TextminingApiPublicValidator.FT_ID_EMPTY_ERROR), this.validate(submission, null, true));
+		assertFalse(validator.validateSubmission(null, null, new AtomicReference<List<String>>()));
+	}
+}